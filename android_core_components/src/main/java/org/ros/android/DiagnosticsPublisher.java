@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import android.util.Log;
+
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically publishes a {@link diagnostic_msgs.DiagnosticArray} on
+ * {@code /diagnostics} with one status per registered {@link Source}.
+ *
+ * <p>
+ * The period is read from the private parameter {@code ~diagnostics_period}
+ * (seconds, 1 by default). A period of 0 or less disables publishing.
+ */
+public class DiagnosticsPublisher {
+
+  private static final String TAG = "DiagnosticsPublisher";
+
+  /**
+   * Reports the state of one component.
+   */
+  public interface Source {
+
+    /**
+     * Called on the node's scheduler once per period.
+     *
+     * @param status a fresh status with level {@link diagnostic_msgs.DiagnosticStatus#OK}
+     *     and no values
+     */
+    void update(DiagnosticsPublisher publisher, diagnostic_msgs.DiagnosticStatus status);
+  }
+
+  private final ConnectedNode connectedNode;
+  private final MessageFactory messageFactory;
+  private final Publisher<diagnostic_msgs.DiagnosticArray> publisher;
+  private final List<Source> sources;
+  private final ScheduledFuture<?> future;
+
+  public DiagnosticsPublisher(ConnectedNode connectedNode) {
+    this.connectedNode = connectedNode;
+    messageFactory = connectedNode.getTopicMessageFactory();
+    publisher = connectedNode.newPublisher("/diagnostics", diagnostic_msgs.DiagnosticArray._TYPE);
+    sources = new CopyOnWriteArrayList<>();
+    double period = Parameters.getDouble(connectedNode.getParameterTree(), "~diagnostics_period", 1.0);
+    if (period > 0) {
+      long periodMicros = (long) (period * 1e6);
+      future = connectedNode.getScheduledExecutorService().scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            publish();
+          } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to publish diagnostics.", e);
+          }
+        }
+      }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    } else {
+      future = null;
+    }
+  }
+
+  public void addSource(Source source) {
+    sources.add(source);
+  }
+
+  public void removeSource(Source source) {
+    sources.remove(source);
+  }
+
+  public void addValue(diagnostic_msgs.DiagnosticStatus status, String key, String value) {
+    diagnostic_msgs.KeyValue keyValue = messageFactory.newFromType(diagnostic_msgs.KeyValue._TYPE);
+    keyValue.setKey(key);
+    keyValue.setValue(value);
+    status.getValues().add(keyValue);
+  }
+
+  public void addValue(diagnostic_msgs.DiagnosticStatus status, String key, long value) {
+    addValue(status, key, Long.toString(value));
+  }
+
+  /**
+   * Adds a duration in milliseconds with microsecond precision.
+   */
+  public void addMillis(diagnostic_msgs.DiagnosticStatus status, String key, long nanos) {
+    addValue(status, key, String.format(Locale.US, "%.3f", nanos / 1e6));
+  }
+
+  public void shutdown() {
+    if (future != null) {
+      future.cancel(false);
+    }
+    sources.clear();
+  }
+
+  private void publish() {
+    if (sources.isEmpty() || publisher.getNumberOfSubscribers() == 0) {
+      return;
+    }
+    diagnostic_msgs.DiagnosticArray array = publisher.newMessage();
+    array.getHeader().setStamp(connectedNode.getCurrentTime());
+    for (Source source : sources) {
+      diagnostic_msgs.DiagnosticStatus status =
+          messageFactory.newFromType(diagnostic_msgs.DiagnosticStatus._TYPE);
+      status.setLevel(diagnostic_msgs.DiagnosticStatus.OK);
+      source.update(this, status);
+      array.getStatus().add(status);
+    }
+    publisher.publish(array);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with constant memory.
+ *
+ * <p>
+ * Durations are bucketed in microseconds on a log-linear scale: exact below
+ * 16 us, then 8 buckets per power of two, i.e. about 12% resolution. Recording
+ * is a single atomic increment and never allocates, so it is safe to call
+ * from any number of threads on hot paths.
+ */
+public class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Durations of 2^41 us (about 25 days) and more all land in the last bucket.
+  private static final int MAXIMUM_EXPONENT = 40;
+  private static final int BUCKETS = LINEAR_BUCKETS + (MAXIMUM_EXPONENT - 3) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+
+  public LatencyHistogram() {
+    counts = new AtomicLongArray(BUCKETS);
+  }
+
+  /**
+   * @return the number of buckets, i.e. the size of a snapshot array
+   */
+  public static int getBucketCount() {
+    return BUCKETS;
+  }
+
+  public void recordNanos(long nanos) {
+    counts.incrementAndGet(bucketOf(Math.max(0, nanos / 1000)));
+  }
+
+  /**
+   * Copies the current counts into {@code snapshot}, which must have
+   * {@link #getBucketCount()} elements.
+   */
+  public void snapshot(long[] snapshot) {
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the duration in nanoseconds below which {@code percentile} percent
+   *     of all recorded durations fall, or 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    snapshot(snapshot);
+    return getPercentileNanos(snapshot, percentile);
+  }
+
+  /**
+   * Computes a percentile from a snapshot or from the difference of two
+   * snapshots.
+   */
+  public static long getPercentileNanos(long[] snapshot, double percentile) {
+    long total = 0;
+    for (long count : snapshot) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= Math.max(1, rank)) {
+        return upperBoundMicros(i) * 1000;
+      }
+    }
+    return upperBoundMicros(BUCKETS - 1) * 1000;
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < LINEAR_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return Math.min(BUCKETS - 1, LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket);
+  }
+
+  private static long upperBoundMicros(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
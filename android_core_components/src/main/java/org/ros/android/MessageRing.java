@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.ros.node.topic.Publisher;
+
+/**
+ * Recycles the messages of a high rate {@link Publisher} instead of creating
+ * a new one for every publication.
+ *
+ * <p>
+ * rosjava gives no notification once a message has been serialized. The
+ * publisher's outgoing queue holds at most {@link #PUBLISHER_QUEUE_CAPACITY}
+ * messages (dropping the oldest when full) and its writer serializes one
+ * message at a time, so a message can safely be refilled once
+ * {@link #RELEASE_DISTANCE} newer messages were published after it. The ring
+ * holds one more message than that and hands them out in turn.
+ *
+ * <p>
+ * Messages are created lazily, and {@link Initializer} can set the fields
+ * that never change once per message. Not thread-safe: fill and publish from
+ * one thread, and do not publish the ring's messages through any other path.
+ * The publisher must not be latched.
+ */
+public class MessageRing<T> {
+
+  /** Capacity of rosjava's OutgoingMessageQueue. */
+  public static final int PUBLISHER_QUEUE_CAPACITY = 16;
+  /** Queued messages, plus the one being serialized, plus one for safety. */
+  public static final int RELEASE_DISTANCE = PUBLISHER_QUEUE_CAPACITY + 2;
+
+  /**
+   * Sets the constant fields of a newly created message.
+   */
+  public interface Initializer<T> {
+    void initialize(T message);
+  }
+
+  private final Publisher<T> publisher;
+  private final Initializer<T> initializer;
+  private final Object[] messages;
+  private int index;
+
+  public MessageRing(Publisher<T> publisher) {
+    this(publisher, null);
+  }
+
+  /**
+   * @param initializer called once for every message created, or {@code null}
+   */
+  public MessageRing(Publisher<T> publisher, Initializer<T> initializer) {
+    this.publisher = publisher;
+    this.initializer = initializer;
+    messages = new Object[RELEASE_DISTANCE + 1];
+    index = 0;
+  }
+
+  /**
+   * @return the message to fill for the next {@link #publish()}. Fields set
+   *     by earlier publications keep their values.
+   */
+  @SuppressWarnings("unchecked")
+  public T current() {
+    Object message = messages[index];
+    if (message == null) {
+      T created = publisher.newMessage();
+      if (initializer != null) {
+        initializer.initialize(created);
+      }
+      messages[index] = created;
+      return created;
+    }
+    return (T) message;
+  }
+
+  /**
+   * Publishes {@link #current()} and moves on to the next message.
+   */
+  public void publish() {
+    publisher.publish(current());
+    index = (index + 1) % messages.length;
+  }
+
+  public Publisher<T> getPublisher() {
+    return publisher;
+  }
+}
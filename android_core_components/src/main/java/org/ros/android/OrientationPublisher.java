@@ -17,61 +17,161 @@
 package org.ros.android;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
 import android.util.Log;
 
 import geometry_msgs.PoseStamped;
-import org.ros.message.Time;
+import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
 
 /**
+ * Publishes the rotation vector sensor as {@code android/orientation} at
+ * 2 Hz while the topic has subscribers.
+ *
+ * <p>
+ * With the private parameter {@code ~batch_latency} (seconds) above 0, the
+ * sensor is registered with that maximum report latency so that samples wait
+ * in the sensor hub's FIFO and the application processor can sleep in
+ * between. Every sample keeps its own timestamp, and a batch is published in
+ * order, a few messages at a time and at a few times the sampling rate, to
+ * leave the publisher's writer time to empty its outgoing queue. Without
+ * feedback from the writer this is best effort: if it falls behind, the queue
+ * still drops the oldest samples. {@link #flush()}, or any message on
+ * {@code android/orientation/flush}, delivers the waiting samples right away.
+ *
+ * <p>
+ * Samples arrive through a {@link SensorHub}. Sharing the hub with other
+ * publishers (e.g. one that also needs the rotation vector) registers the
+ * sensor only once, at the fastest rate requested, and this publisher gets it
+ * decimated to 2 Hz.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class OrientationPublisher extends AbstractNodeMain {
 
+  private static final int SAMPLING_PERIOD_US = 500000;
+  private static final int BURST = MessageRing.PUBLISHER_QUEUE_CAPACITY / 2;
+  private static final int CATCH_UP = 4;
+  private static final long BURST_INTERVAL_MILLIS = BURST * SAMPLING_PERIOD_US / (1000L * CATCH_UP);
+  private static final int MINIMUM_CAPACITY = 16;
+
   private final SensorManager sensorManager;
 
+  private SensorHub sensorHub;
+  private boolean ownsSensorHub;
   private OrientationListener orientationListener;
+  private SubscriberDemand demand;
+  private volatile SensorHub.Registration registration;
+
+  private final class OrientationListener implements SensorHub.Sink {
 
-  private final class OrientationListener implements SensorEventListener {
+    private final MessageRing<PoseStamped> messages;
+    private final SensorClock sensorClock;
+    private final Handler handler;
+    private final boolean batching;
+    private final float[] quaternion;
+    // Samples of a batch waiting to be published, oldest first.
+    private final long[] pendingTimes;
+    private final float[] pendingQuaternions;
+    private int pendingStart;
+    private int pendingCount;
+    private boolean drainScheduled;
 
-    private final Publisher<geometry_msgs.PoseStamped> publisher;
+    private final Runnable drainStep = new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < BURST && pendingCount > 0; i++) {
+          publish(pendingTimes[pendingStart], pendingQuaternions, 4 * pendingStart);
+          pendingStart = (pendingStart + 1) % pendingTimes.length;
+          pendingCount--;
+        }
+        if (pendingCount > 0) {
+          handler.postDelayed(this, BURST_INTERVAL_MILLIS);
+        } else {
+          drainScheduled = false;
+        }
+      }
+    };
 
-    private OrientationListener(Publisher<geometry_msgs.PoseStamped> publisher) {
-      this.publisher = publisher;
+    private OrientationListener(Publisher<geometry_msgs.PoseStamped> publisher, SensorClock sensorClock,
+        Handler handler, boolean batching, int capacity) {
+      messages = new MessageRing<>(publisher, new MessageRing.Initializer<PoseStamped>() {
+        @Override
+        public void initialize(PoseStamped pose) {
+          pose.getHeader().setFrameId("/map");
+        }
+      });
+      this.sensorClock = sensorClock;
+      this.handler = handler;
+      this.batching = batching;
+      quaternion = new float[4];
+      pendingTimes = new long[capacity];
+      pendingQuaternions = new float[4 * capacity];
     }
 
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    public void onSample(int sensorType, long timestampNanos, float[] values) {
+      SensorManager.getQuaternionFromVector(quaternion, values);
+      if (batching) {
+        enqueue(timestampNanos);
+      } else {
+        publish(timestampNanos, quaternion, 0);
+      }
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-      if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-        float[] quaternion = new float[4];
-        SensorManager.getQuaternionFromVector(quaternion, event.values);
-        PoseStamped pose = publisher.newMessage();
-        pose.getHeader().setFrameId("/map");
-        // TODO(damonkohler): Should get time from the Node.
-        pose.getHeader().setStamp(Time.fromMillis(System.currentTimeMillis()));
-        pose.getPose().getOrientation().setW(quaternion[0]);
-        pose.getPose().getOrientation().setX(quaternion[1]);
-        pose.getPose().getOrientation().setY(quaternion[2]);
-        pose.getPose().getOrientation().setZ(quaternion[3]);
-        publisher.publish(pose);
+    /**
+     * Batches arrive as a burst of events: queue the samples behind the ones
+     * not published yet.
+     */
+    private void enqueue(long timestamp) {
+      if (pendingCount == pendingTimes.length) {
+        // Full: drop the oldest sample.
+        pendingStart = (pendingStart + 1) % pendingTimes.length;
+        pendingCount--;
       }
+      int slot = (pendingStart + pendingCount) % pendingTimes.length;
+      pendingTimes[slot] = timestamp;
+      System.arraycopy(quaternion, 0, pendingQuaternions, 4 * slot, 4);
+      pendingCount++;
+      if (!drainScheduled) {
+        drainScheduled = true;
+        handler.post(drainStep);
+      }
+    }
+
+    private void publish(long timestamp, float[] quaternions, int offset) {
+      PoseStamped pose = messages.current();
+      sensorClock.toRosTime(timestamp, pose.getHeader().getStamp());
+      pose.getPose().getOrientation().setW(quaternions[offset]);
+      pose.getPose().getOrientation().setX(quaternions[offset + 1]);
+      pose.getPose().getOrientation().setY(quaternions[offset + 2]);
+      pose.getPose().getOrientation().setZ(quaternions[offset + 3]);
+      messages.publish();
     }
   }
 
+  /**
+   * Creates a publisher with a {@link SensorHub} of its own.
+   */
   public OrientationPublisher(SensorManager sensorManager) {
     this.sensorManager = sensorManager;
   }
 
+  /**
+   * Creates a publisher receiving samples through a shared hub, which the
+   * caller shuts down.
+   */
+  public OrientationPublisher(SensorHub sensorHub) {
+    this.sensorManager = sensorHub.getSensorManager();
+    this.sensorHub = sensorHub;
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("android/orientiation_sensor");
@@ -82,14 +182,67 @@ public class OrientationPublisher extends AbstractNodeMain {
     try {
       Publisher<geometry_msgs.PoseStamped> publisher =
           connectedNode.newPublisher("android/orientation", "geometry_msgs/PoseStamped");
-      orientationListener = new OrientationListener(publisher);
-      Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-      // 10 Hz
-      sensorManager.registerListener(orientationListener, sensor, 500000);
+      final int batchLatencyUs =
+          (int) Math.max(0, Parameters.getDouble(connectedNode.getParameterTree(), "~batch_latency", 0) * 1e6);
+      if (sensorHub == null) {
+        sensorHub = new SensorHub(sensorManager);
+        ownsSensorHub = true;
+      }
+      Handler handler = sensorHub.getHandler();
+      orientationListener = new OrientationListener(publisher, new SensorClock(connectedNode), handler,
+          batchLatencyUs > 0, MINIMUM_CAPACITY + 2 * batchLatencyUs / SAMPLING_PERIOD_US);
+      // Only keep the rotation vector sensor running while someone subscribes.
+      demand = new SubscriberDemand(connectedNode);
+      demand.addListener(new SubscriberDemand.Listener() {
+        @Override
+        public void onDemandChanged(boolean hasDemand) {
+          if (hasDemand) {
+            // 2 Hz
+            registration = sensorHub.register(Sensor.TYPE_ROTATION_VECTOR, SAMPLING_PERIOD_US, batchLatencyUs,
+                orientationListener);
+          } else {
+            sensorHub.unregister(registration);
+            registration = null;
+          }
+        }
+      });
+      demand.watch(publisher);
+      Subscriber<std_msgs.Empty> flushSubscriber =
+          connectedNode.newSubscriber("android/orientation/flush", std_msgs.Empty._TYPE);
+      flushSubscriber.addMessageListener(new MessageListener<std_msgs.Empty>() {
+        @Override
+        public void onNewMessage(std_msgs.Empty message) {
+          flush();
+        }
+      });
     } catch (Exception e) {
       Log.e("error",e.toString());
       e.printStackTrace();
 //      connectedNode.getLog().fatal(e);
     }
   }
+
+  /**
+   * Asks the sensor to deliver the samples waiting in its FIFO now.
+   */
+  public void flush() {
+    if (sensorHub != null) {
+      sensorHub.flush(registration);
+    }
+  }
+
+  @Override
+  public void onShutdown(Node node) {
+    if (demand != null) {
+      demand.shutdown();
+    }
+    if (sensorHub != null) {
+      sensorHub.unregister(registration);
+      registration = null;
+      if (ownsSensorHub) {
+        sensorHub.shutdown();
+        sensorHub = null;
+      }
+    }
+  }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.ros.exception.ParameterClassCastException;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * Reads parameters more leniently than {@link ParameterTree}.
+ */
+public final class Parameters {
+
+  private Parameters() {
+  }
+
+  /**
+   * Reads a numeric parameter. Unlike {@link ParameterTree#getDouble}, which
+   * casts the stored value, this also accepts integers, so that
+   * {@code _rate:=50} or {@code rate: 50} in YAML work as well as {@code 50.0}.
+   */
+  public static double getDouble(ParameterTree parameters, String name, double defaultValue) {
+    try {
+      return parameters.getDouble(name, defaultValue);
+    } catch (ParameterClassCastException e) {
+      return parameters.getInteger(name, 0);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import android.os.SystemClock;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.message.Time;
+import org.ros.node.ConnectedNode;
+import org.ros.time.TimeProvider;
+
+/**
+ * Maps timestamps on the {@link SystemClock#elapsedRealtimeNanos()} clock, the
+ * clock of sensor events and (after the shift from
+ * {@code ImageUtils.getCameraTimestampsShiftWrtSensors}) camera frames, into
+ * ROS time.
+ *
+ * <p>
+ * The offset between both clocks is estimated by reading ROS time between two
+ * reads of the monotonic clock and keeping the tightest of a few such
+ * brackets. It is re-estimated at most once per resync period, from whichever
+ * thread converts a timestamp at that time, and smoothed so that single late
+ * reads do not make stamps jitter. Steps of ROS time (e.g. a changed wall
+ * clock or simulated time) are followed immediately.
+ */
+public class SensorClock {
+
+  private static final long DEFAULT_RESYNC_PERIOD_NANOS = 1000000000L;
+  private static final long STEP_THRESHOLD_NANOS = 20000000L;
+  private static final int BRACKETS = 3;
+  private static final double SMOOTHING = 0.1;
+
+  private final TimeProvider timeProvider;
+  private final long resyncPeriodNanos;
+
+  private volatile long offsetNanos;
+  private volatile long lastResyncNanos;
+  private volatile boolean synchronizedOnce;
+
+  public SensorClock(final ConnectedNode connectedNode) {
+    this(new TimeProvider() {
+      @Override
+      public Time getCurrentTime() {
+        return connectedNode.getCurrentTime();
+      }
+    }, DEFAULT_RESYNC_PERIOD_NANOS);
+  }
+
+  public SensorClock(TimeProvider timeProvider, long resyncPeriodNanos) {
+    Preconditions.checkArgument(resyncPeriodNanos > 0);
+    this.timeProvider = timeProvider;
+    this.resyncPeriodNanos = resyncPeriodNanos;
+  }
+
+  /**
+   * @return the current time on the clock this class maps from
+   */
+  public static long now() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /**
+   * @param elapsedRealtimeNanos a timestamp on the {@link #now()} clock
+   * @return the same instant in ROS time
+   */
+  public Time toRosTime(long elapsedRealtimeNanos) {
+    return Time.fromNano(elapsedRealtimeNanos + getOffsetNanos());
+  }
+
+  /**
+   * Like {@link #toRosTime(long)}, but writes into {@code result} instead of
+   * allocating, e.g. into the stamp of a recycled message.
+   *
+   * @return {@code result}
+   */
+  public Time toRosTime(long elapsedRealtimeNanos, Time result) {
+    long nanos = elapsedRealtimeNanos + getOffsetNanos();
+    result.secs = (int) (nanos / 1000000000L);
+    result.nsecs = (int) (nanos % 1000000000L);
+    return result;
+  }
+
+  /**
+   * @return ROS time minus {@link #now()}, re-estimated if the last estimate
+   *     is older than the resync period
+   */
+  public long getOffsetNanos() {
+    if (!synchronizedOnce || now() - lastResyncNanos >= resyncPeriodNanos) {
+      resynchronize();
+    }
+    return offsetNanos;
+  }
+
+  /**
+   * Re-estimates the offset right away.
+   */
+  public synchronized void resynchronize() {
+    long bestBracket = Long.MAX_VALUE;
+    long measured = 0;
+    for (int i = 0; i < BRACKETS; i++) {
+      long before = now();
+      long rosNanos = timeProvider.getCurrentTime().totalNsecs();
+      long after = now();
+      if (after - before < bestBracket) {
+        bestBracket = after - before;
+        measured = rosNanos - before - (after - before) / 2;
+      }
+    }
+    long current = offsetNanos;
+    if (!synchronizedOnce || Math.abs(measured - current) > STEP_THRESHOLD_NANOS) {
+      offsetNanos = measured;
+      synchronizedOnce = true;
+    } else {
+      offsetNanos = current + (long) ((measured - current) * SMOOTHING);
+    }
+    lastResyncNanos = now();
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity history of timestamped sensor samples with a few floats
+ * each, e.g. three-axis readings or quaternions, kept in primitive arrays.
+ *
+ * <p>
+ * One thread appends samples in increasing time order; any number of threads
+ * query concurrently without locks. The writer fills a slot and then
+ * publishes it by incrementing a volatile counter. Readers copy what they
+ * need and check the counter afterwards: if the writer may have overwritten a
+ * slot they read, the query is repeated. Timestamps and values are held in
+ * atomic arrays (values as raw float bits), so every slot access is a
+ * volatile access: the readers' loads cannot be reordered after the final
+ * check of the counter, and 64-bit timestamps are read atomically on 32-bit
+ * devices too. Queries write into caller-owned arrays and never allocate.
+ */
+public class SensorHistory {
+
+  private static final int MAXIMUM_ATTEMPTS = 4;
+
+  private final int capacity;
+  private final int mask;
+  private final int dimensions;
+  private final boolean quaternion;
+  private final AtomicLongArray times;
+  private final AtomicIntegerArray values;
+
+  private volatile long written;
+
+  /**
+   * @param capacity number of samples kept, rounded up to a power of two
+   * @param dimensions floats per sample
+   * @param quaternion {@code true} if samples are quaternions, which are
+   *     interpolated along the shorter arc and normalized
+   */
+  public SensorHistory(int capacity, int dimensions, boolean quaternion) {
+    Preconditions.checkArgument(capacity >= 2 && capacity <= 1 << 30);
+    Preconditions.checkArgument(dimensions > 0);
+    Preconditions.checkArgument(!quaternion || dimensions == 4);
+    this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.dimensions = dimensions;
+    this.quaternion = quaternion;
+    times = new AtomicLongArray(this.capacity);
+    values = new AtomicIntegerArray(this.capacity * dimensions);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getDimensions() {
+    return dimensions;
+  }
+
+  /**
+   * Appends a sample. Must only be called from one thread. Samples not newer
+   * than the last one are ignored.
+   *
+   * @param values at least {@link #getDimensions()} floats
+   */
+  public void add(long timestampNanos, float[] values) {
+    long count = written;
+    if (count > 0 && timestampNanos <= times.get((int) ((count - 1) & mask))) {
+      return;
+    }
+    int slot = (int) (count & mask);
+    times.set(slot, timestampNanos);
+    for (int i = 0; i < dimensions; i++) {
+      this.values.set(slot * dimensions + i, Float.floatToRawIntBits(values[i]));
+    }
+    written = count + 1;
+  }
+
+  /**
+   * @return the number of samples added since creation
+   */
+  public long getCount() {
+    return written;
+  }
+
+  /**
+   * @return the timestamp of the newest sample, or {@link Long#MIN_VALUE} if
+   *     there is none
+   */
+  public long getLatestTimestamp() {
+    for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; attempt++) {
+      long count = written;
+      if (count == 0) {
+        return Long.MIN_VALUE;
+      }
+      long timestamp = times.get((int) ((count - 1) & mask));
+      if (isIntact(count - 1)) {
+        return timestamp;
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  /**
+   * Copies the samples with {@code startNanos <= timestamp <= endNanos}, oldest
+   * first, as far as they are still held and fit into {@code timestamps}.
+   *
+   * @param values receives {@link #getDimensions()} floats per sample
+   * @return the number of samples copied
+   */
+  public int samplesBetween(long startNanos, long endNanos, long[] timestamps, float[] values) {
+    Preconditions.checkArgument(values.length >= timestamps.length * dimensions);
+    for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; attempt++) {
+      long count = written;
+      long first = firstAfter(startNanos - 1, count);
+      int copied = 0;
+      for (long index = first; index < count && copied < timestamps.length; index++) {
+        int slot = (int) (index & mask);
+        long timestamp = times.get(slot);
+        if (timestamp > endNanos) {
+          break;
+        }
+        timestamps[copied] = timestamp;
+        copy(slot, values, copied * dimensions);
+        copied++;
+      }
+      if (isIntact(first)) {
+        return copied;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Interpolates linearly between the two samples around {@code timeNanos}.
+   *
+   * @param out receives {@link #getDimensions()} floats
+   * @return {@code false} if {@code timeNanos} is outside the held samples
+   */
+  public boolean interpolateAt(long timeNanos, float[] out) {
+    for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; attempt++) {
+      long count = written;
+      long after = firstAfter(timeNanos - 1, count);
+      if (after >= count) {
+        return false;
+      }
+      int afterSlot = (int) (after & mask);
+      long afterTime = times.get(afterSlot);
+      if (afterTime == timeNanos) {
+        copy(afterSlot, out, 0);
+      } else {
+        if (after == 0 || after <= count - capacity + 1) {
+          return false;
+        }
+        int beforeSlot = (int) ((after - 1) & mask);
+        long beforeTime = times.get(beforeSlot);
+        interpolate(beforeSlot, afterSlot, (float) (timeNanos - beforeTime) / (afterTime - beforeTime), out);
+        after--;
+      }
+      if (isIntact(after)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void copy(int slot, float[] out, int offset) {
+    for (int i = 0; i < dimensions; i++) {
+      out[offset + i] = value(slot * dimensions + i);
+    }
+  }
+
+  private float value(int index) {
+    return Float.intBitsToFloat(values.get(index));
+  }
+
+  private void interpolate(int beforeSlot, int afterSlot, float fraction, float[] out) {
+    int start = beforeSlot * dimensions;
+    int end = afterSlot * dimensions;
+    float sign = 1;
+    if (quaternion) {
+      float dot = 0;
+      for (int i = 0; i < dimensions; i++) {
+        dot += value(start + i) * value(end + i);
+      }
+      sign = dot < 0 ? -1 : 1;
+    }
+    float norm = 0;
+    for (int i = 0; i < dimensions; i++) {
+      float first = value(start + i);
+      out[i] = first + (sign * value(end + i) - first) * fraction;
+      norm += out[i] * out[i];
+    }
+    if (quaternion && norm > 0) {
+      float scale = (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < dimensions; i++) {
+        out[i] *= scale;
+      }
+    }
+  }
+
+  /**
+   * @return the index of the oldest held sample newer than {@code timeNanos},
+   *     or {@code count} if there is none
+   */
+  private long firstAfter(long timeNanos, long count) {
+    // The oldest slot may be overwritten by the writer at any time.
+    long low = Math.max(0, count - capacity + 1);
+    long high = count;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (times.get((int) (middle & mask)) <= timeNanos) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return {@code true} if the writer has not started to overwrite the
+   *     sample at {@code index} or any newer one
+   */
+  private boolean isIntact(long index) {
+    return index > written - capacity;
+  }
+}
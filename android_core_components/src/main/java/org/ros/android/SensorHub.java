@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.google.common.base.Preconditions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Delivers the samples of any number of sensors, for any number of
+ * publishers, on one high priority thread.
+ *
+ * <p>
+ * Every sensor is registered with the {@link SensorManager} at most once, at
+ * the shortest sampling period and report latency among its
+ * {@link Registration}s, and re-registered when those change. Registrations
+ * asking for a longer period are decimated: a sample is passed on once their
+ * period has (nearly) elapsed since the last one they received. Sinks are
+ * called on the hub's thread, which publishers can also use through
+ * {@link #getHandler()} for work that must not race with their sinks, e.g.
+ * pacing the publication of batched samples.
+ */
+public class SensorHub {
+
+  /**
+   * Receives the samples of one registration, on the hub's thread.
+   */
+  public interface Sink {
+    /**
+     * @param timestampNanos the sample's time on the
+     *     {@link android.os.SystemClock#elapsedRealtimeNanos()} clock
+     * @param values owned by the framework: copy what must be kept
+     */
+    void onSample(int sensorType, long timestampNanos, float[] values);
+  }
+
+  /**
+   * A sink's interest in one sensor.
+   */
+  public static final class Registration {
+    private final Channel channel;
+    private final Sink sink;
+    private final int samplingPeriodUs;
+    private final int maxReportLatencyUs;
+    // Only touched on the hub's thread.
+    private long lastDeliveredNanos;
+
+    private Registration(Channel channel, Sink sink, int samplingPeriodUs, int maxReportLatencyUs) {
+      this.channel = channel;
+      this.sink = sink;
+      this.samplingPeriodUs = samplingPeriodUs;
+      this.maxReportLatencyUs = maxReportLatencyUs;
+      lastDeliveredNanos = Long.MIN_VALUE;
+    }
+
+    public int getSensorType() {
+      return channel.sensor.getType();
+    }
+
+    public Sensor getSensor() {
+      return channel.sensor;
+    }
+
+    public int getSamplingPeriodUs() {
+      return samplingPeriodUs;
+    }
+  }
+
+  /**
+   * The registrations of one sensor, registered as one listener.
+   */
+  private final class Channel implements SensorEventListener2 {
+    private final Sensor sensor;
+    // Replaced, never modified, so the hub's thread can iterate without a lock.
+    private volatile Registration[] registrations;
+    private volatile int registeredPeriodUs;
+    private int registeredLatencyUs;
+
+    private Channel(Sensor sensor) {
+      this.sensor = sensor;
+      registrations = new Registration[0];
+      registeredPeriodUs = -1;
+      registeredLatencyUs = -1;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+      int type = sensor.getType();
+      int sensorPeriodUs = registeredPeriodUs;
+      for (Registration registration : registrations) {
+        // Tolerate some jitter so that e.g. 100 Hz out of a 200 Hz sensor
+        // takes every second sample rather than every third.
+        long periodNanos = registration.samplingPeriodUs * 1000L;
+        if (registration.samplingPeriodUs > sensorPeriodUs && registration.lastDeliveredNanos != Long.MIN_VALUE
+            && event.timestamp - registration.lastDeliveredNanos < periodNanos - (periodNanos >> 3)) {
+          continue;
+        }
+        registration.lastDeliveredNanos = event.timestamp;
+        registration.sink.onSample(type, event.timestamp, event.values);
+      }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+    }
+  }
+
+  private final SensorManager sensorManager;
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Map<Integer, Channel> channels;
+
+  private boolean shutdown;
+
+  public SensorHub(SensorManager sensorManager) {
+    this.sensorManager = sensorManager;
+    // Sensor callbacks are short and latency sensitive: keep them ahead of
+    // encoding and networking threads.
+    thread = new HandlerThread("SensorHub", Process.THREAD_PRIORITY_DISPLAY);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    channels = new HashMap<>();
+  }
+
+  public SensorManager getSensorManager() {
+    return sensorManager;
+  }
+
+  /**
+   * @return the handler of the thread all sinks are called on
+   */
+  public Handler getHandler() {
+    return handler;
+  }
+
+  public Looper getLooper() {
+    return thread.getLooper();
+  }
+
+  /**
+   * @return {@code true} if the device has a sensor of this type
+   */
+  public boolean hasSensor(int sensorType) {
+    return sensorManager.getDefaultSensor(sensorType) != null;
+  }
+
+  /**
+   * Starts delivering the default sensor of a type to {@code sink}.
+   *
+   * @param samplingPeriodUs sampling period in microseconds, or one of the
+   *     {@code SensorManager.SENSOR_DELAY_*} constants
+   * @param maxReportLatencyUs longest time samples may wait in the sensor's
+   *     FIFO, 0 to deliver them right away
+   * @return the registration, or {@code null} if there is no such sensor or
+   *     the hub was shut down
+   */
+  public synchronized Registration register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs,
+      Sink sink) {
+    Preconditions.checkArgument(samplingPeriodUs >= 0 && maxReportLatencyUs >= 0);
+    if (shutdown) {
+      return null;
+    }
+    Channel channel = channels.get(sensorType);
+    if (channel == null) {
+      Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+      if (sensor == null) {
+        return null;
+      }
+      channel = new Channel(sensor);
+      channels.put(sensorType, channel);
+    }
+    Registration registration =
+        new Registration(channel, sink, toMicroseconds(samplingPeriodUs), maxReportLatencyUs);
+    Registration[] registrations = new Registration[channel.registrations.length + 1];
+    System.arraycopy(channel.registrations, 0, registrations, 0, channel.registrations.length);
+    registrations[registrations.length - 1] = registration;
+    channel.registrations = registrations;
+    update(channel);
+    return registration;
+  }
+
+  /**
+   * Stops a registration. Does nothing if it was already stopped.
+   */
+  public synchronized void unregister(Registration registration) {
+    if (registration == null) {
+      return;
+    }
+    Channel channel = registration.channel;
+    Registration[] current = channel.registrations;
+    int index = -1;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == registration) {
+        index = i;
+      }
+    }
+    if (index < 0) {
+      return;
+    }
+    Registration[] registrations = new Registration[current.length - 1];
+    System.arraycopy(current, 0, registrations, 0, index);
+    System.arraycopy(current, index + 1, registrations, index, registrations.length - index);
+    channel.registrations = registrations;
+    update(channel);
+  }
+
+  /**
+   * Asks the sensor of a registration to deliver the samples waiting in its
+   * FIFO now. Every registration of that sensor receives them.
+   */
+  public void flush(Registration registration) {
+    if (registration != null) {
+      sensorManager.flush(registration.channel);
+    }
+  }
+
+  /**
+   * Unregisters all sensors and stops the thread. Registrations made
+   * afterwards are refused.
+   */
+  public synchronized void shutdown() {
+    if (shutdown) {
+      return;
+    }
+    shutdown = true;
+    for (Channel channel : channels.values()) {
+      channel.registrations = new Registration[0];
+      update(channel);
+    }
+    thread.quitSafely();
+  }
+
+  /**
+   * (Re-)registers the sensor of a channel at the fastest period and shortest
+   * latency of its registrations, or unregisters it if there are none left.
+   */
+  private void update(Channel channel) {
+    int periodUs = Integer.MAX_VALUE;
+    int latencyUs = Integer.MAX_VALUE;
+    for (Registration registration : channel.registrations) {
+      periodUs = Math.min(periodUs, registration.samplingPeriodUs);
+      latencyUs = Math.min(latencyUs, registration.maxReportLatencyUs);
+    }
+    if (channel.registrations.length == 0) {
+      if (channel.registeredPeriodUs >= 0) {
+        sensorManager.unregisterListener(channel, channel.sensor);
+        channel.registeredPeriodUs = -1;
+        channel.registeredLatencyUs = -1;
+      }
+      return;
+    }
+    if (periodUs == channel.registeredPeriodUs && latencyUs == channel.registeredLatencyUs) {
+      return;
+    }
+    if (channel.registeredPeriodUs >= 0) {
+      sensorManager.unregisterListener(channel, channel.sensor);
+    }
+    sensorManager.registerListener(channel, channel.sensor, periodUs, latencyUs, handler);
+    channel.registeredPeriodUs = periodUs;
+    channel.registeredLatencyUs = latencyUs;
+  }
+
+  /**
+   * Converts the {@code SensorManager.SENSOR_DELAY_*} constants to the
+   * periods the framework uses for them.
+   */
+  private static int toMicroseconds(int samplingPeriodUs) {
+    switch (samplingPeriodUs) {
+      case SensorManager.SENSOR_DELAY_FASTEST:
+        return 0;
+      case SensorManager.SENSOR_DELAY_GAME:
+        return 20000;
+      case SensorManager.SENSOR_DELAY_UI:
+        return 66667;
+      case SensorManager.SENSOR_DELAY_NORMAL:
+        return 200000;
+      default:
+        return samplingPeriodUs;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import android.os.SystemClock;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery statistics of one sensor: achieved rate, the distribution of
+ * intervals between samples, gaps and the latency from the sample's timestamp
+ * to its delivery to the application.
+ *
+ * <p>
+ * A gap is an interval longer than a given number of sample periods. The
+ * period is the requested one, or the smoothed measured interval if the
+ * sensor was registered without a fixed rate. Memory is constant and
+ * {@link #record} neither blocks nor allocates. Registered with a
+ * {@link DiagnosticsPublisher}, the statistics of each period are published
+ * on {@code /diagnostics}, with level WARN if the sensor delivered less than
+ * {@link #RATE_WARNING_FRACTION} of the requested rate or had gaps. While the
+ * sensor is not registered (see {@link #setActive}) it is reported as idle,
+ * with level OK.
+ */
+public class SensorStats implements DiagnosticsPublisher.Source {
+
+  public static final double RATE_WARNING_FRACTION = 0.8;
+
+  private final String name;
+  private final long expectedPeriodNanos;
+  private final double gapPeriods;
+  private final LatencyHistogram intervals;
+  private final LatencyHistogram latencies;
+  private final AtomicLong samples;
+  private final AtomicLong gaps;
+  private final long[] snapshot;
+  private final long[] reportedIntervals;
+  private final long[] reportedLatencies;
+
+  // Only touched by the thread calling record().
+  private long previousTimestamp;
+  private volatile long averagePeriodNanos;
+
+  private volatile boolean active = true;
+  // Set when the sensor was started or stopped since the last report, whose
+  // rate then covers only part of the period.
+  private volatile boolean activeChanged;
+
+  private long reportedSamples;
+  private long reportedGaps;
+  private long reportedNanos;
+
+  /**
+   * @param expectedPeriodNanos requested sampling period, or 0 if the sensor
+   *     runs at whatever rate it can
+   * @param gapPeriods number of periods from which an interval counts as gap
+   */
+  public SensorStats(String name, long expectedPeriodNanos, double gapPeriods) {
+    Preconditions.checkArgument(expectedPeriodNanos >= 0 && gapPeriods > 1);
+    this.name = name;
+    this.expectedPeriodNanos = expectedPeriodNanos;
+    this.gapPeriods = gapPeriods;
+    intervals = new LatencyHistogram();
+    latencies = new LatencyHistogram();
+    samples = new AtomicLong();
+    gaps = new AtomicLong();
+    snapshot = new long[LatencyHistogram.getBucketCount()];
+    reportedIntervals = new long[LatencyHistogram.getBucketCount()];
+    reportedLatencies = new long[LatencyHistogram.getBucketCount()];
+    reportedNanos = SystemClock.elapsedRealtimeNanos();
+  }
+
+  /**
+   * Records one sample. Must only be called from one thread.
+   *
+   * @param timestampNanos the sample's timestamp on the
+   *     {@link SystemClock#elapsedRealtimeNanos()} clock
+   * @param deliveryNanos the time it reached the application, on the same
+   *     clock
+   */
+  public void record(long timestampNanos, long deliveryNanos) {
+    samples.incrementAndGet();
+    latencies.recordNanos(deliveryNanos - timestampNanos);
+    long previous = previousTimestamp;
+    previousTimestamp = timestampNanos;
+    if (previous == 0 || timestampNanos <= previous) {
+      return;
+    }
+    long interval = timestampNanos - previous;
+    intervals.recordNanos(interval);
+    long average = averagePeriodNanos;
+    long period = expectedPeriodNanos > 0 ? expectedPeriodNanos : average;
+    if (period > 0 && interval > gapPeriods * period) {
+      gaps.incrementAndGet();
+    } else {
+      // Gaps would drag the estimate of the sensor's own period up.
+      averagePeriodNanos = average == 0 ? interval : average + ((interval - average) >> 3);
+    }
+  }
+
+  /**
+   * Forgets the previous sample, e.g. after the sensor was suspended, so that
+   * the pause does not count as gap.
+   */
+  public void reset() {
+    previousTimestamp = 0;
+  }
+
+  /**
+   * Tells whether the sensor is registered. Inactive sensors are expected to
+   * deliver nothing and are reported as idle rather than too slow. Active by
+   * default.
+   */
+  public void setActive(boolean active) {
+    if (this.active != active) {
+      this.active = active;
+      activeChanged = true;
+    }
+  }
+
+  public boolean isActive() {
+    return active;
+  }
+
+  public long getSamples() {
+    return samples.get();
+  }
+
+  public long getGaps() {
+    return gaps.get();
+  }
+
+  /**
+   * @return the rate in Hz estimated from the smoothed interval between
+   *     samples, or 0 before two samples arrived
+   */
+  public double getEstimatedRate() {
+    long average = averagePeriodNanos;
+    return average > 0 ? 1e9 / average : 0;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   */
+  public long getIntervalPercentileNanos(double percentile) {
+    return intervals.getPercentileNanos(percentile);
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   */
+  public long getLatencyPercentileNanos(double percentile) {
+    return latencies.getPercentileNanos(percentile);
+  }
+
+  @Override
+  public synchronized void update(DiagnosticsPublisher publisher, diagnostic_msgs.DiagnosticStatus status) {
+    long now = SystemClock.elapsedRealtimeNanos();
+    long sampleCount = samples.get();
+    long gapCount = gaps.get();
+    double rate = now > reportedNanos ? (sampleCount - reportedSamples) * 1e9 / (now - reportedNanos) : 0;
+    long newGaps = gapCount - reportedGaps;
+    boolean partial = activeChanged;
+    activeChanged = false;
+    status.setName(name);
+    status.setHardwareId("sensor");
+    if (!active) {
+      status.setMessage("idle");
+    } else {
+      status.setMessage(String.format(Locale.US, "%.1f Hz, %d gaps", rate, newGaps));
+      boolean slow = !partial && expectedPeriodNanos > 0 && rate < RATE_WARNING_FRACTION * 1e9 / expectedPeriodNanos;
+      if (newGaps > 0 || slow) {
+        status.setLevel(diagnostic_msgs.DiagnosticStatus.WARN);
+      }
+    }
+    publisher.addValue(status, "rate (Hz)", String.format(Locale.US, "%.1f", rate));
+    if (expectedPeriodNanos > 0) {
+      publisher.addValue(status, "requested rate (Hz)", String.format(Locale.US, "%.1f", 1e9 / expectedPeriodNanos));
+    }
+    publisher.addValue(status, "samples", sampleCount);
+    publisher.addValue(status, "gaps", gapCount);
+    addPercentiles(publisher, status, "interval", intervals, reportedIntervals);
+    addPercentiles(publisher, status, "latency", latencies, reportedLatencies);
+    reportedSamples = sampleCount;
+    reportedGaps = gapCount;
+    reportedNanos = now;
+  }
+
+  private void addPercentiles(DiagnosticsPublisher publisher, diagnostic_msgs.DiagnosticStatus status, String label,
+      LatencyHistogram histogram, long[] reported) {
+    // Percentiles of this period only: subtract the counts reported last time.
+    histogram.snapshot(snapshot);
+    for (int i = 0; i < snapshot.length; i++) {
+      long count = snapshot[i];
+      snapshot[i] = count - reported[i];
+      reported[i] = count;
+    }
+    publisher.addMillis(status, label + " p50 (ms)", LatencyHistogram.getPercentileNanos(snapshot, 50));
+    publisher.addMillis(status, label + " p99 (ms)", LatencyHistogram.getPercentileNanos(snapshot, 99));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+/**
+ * Publishes every sample of one sensor as one message, received through a
+ * {@link SensorHub} and only while the topic has subscribers.
+ *
+ * <p>
+ * Messages come from a {@link MessageRing}, so subclasses only copy the
+ * sample's values into them: the header's stamp (the sample time mapped by a
+ * {@link SensorClock}) and frame id are taken care of, and fields that never
+ * change can be set once in {@link #initialize}.
+ */
+public abstract class SensorStream<T> implements SensorHub.Sink {
+
+  private final SensorHub sensorHub;
+  private final int sensorType;
+  private final int samplingPeriodUs;
+
+  private MessageRing<T> messages;
+  private SensorClock sensorClock;
+  private SubscriberDemand demand;
+  private volatile SensorHub.Registration registration;
+
+  /**
+   * @param samplingPeriodUs sampling period in microseconds, or one of the
+   *     {@code SensorManager.SENSOR_DELAY_*} constants
+   */
+  protected SensorStream(SensorHub sensorHub, int sensorType, int samplingPeriodUs) {
+    this.sensorHub = sensorHub;
+    this.sensorType = sensorType;
+    this.samplingPeriodUs = samplingPeriodUs;
+  }
+
+  /**
+   * Sets the fields of a new message that are the same for every sample.
+   */
+  protected void initialize(T message) {
+  }
+
+  protected abstract std_msgs.Header getHeader(T message);
+
+  /**
+   * Copies a sample into a message, on the hub's thread.
+   *
+   * @param values the sample's values as reported by the sensor
+   */
+  protected abstract void fill(T message, float[] values);
+
+  /**
+   * Creates the topic. Does nothing if the device has no such sensor.
+   *
+   * @return {@code true} if the sensor exists
+   */
+  public boolean start(ConnectedNode connectedNode, SensorClock sensorClock, String topic, String messageType,
+      final String frameId) {
+    if (!sensorHub.hasSensor(sensorType)) {
+      return false;
+    }
+    this.sensorClock = sensorClock;
+    Publisher<T> publisher = connectedNode.newPublisher(topic, messageType);
+    messages = new MessageRing<>(publisher, new MessageRing.Initializer<T>() {
+      @Override
+      public void initialize(T message) {
+        getHeader(message).setFrameId(frameId);
+        SensorStream.this.initialize(message);
+      }
+    });
+    demand = new SubscriberDemand(connectedNode);
+    demand.addListener(new SubscriberDemand.Listener() {
+      @Override
+      public void onDemandChanged(boolean hasDemand) {
+        if (hasDemand) {
+          registration = sensorHub.register(sensorType, samplingPeriodUs, 0, SensorStream.this);
+        } else {
+          sensorHub.unregister(registration);
+          registration = null;
+        }
+      }
+    });
+    demand.watch(publisher);
+    return true;
+  }
+
+  @Override
+  public void onSample(int sensorType, long timestampNanos, float[] values) {
+    T message = messages.current();
+    sensorClock.toRosTime(timestampNanos, getHeader(message).getStamp());
+    fill(message, values);
+    messages.publish();
+  }
+
+  public void shutdown() {
+    if (demand != null) {
+      demand.shutdown();
+    }
+    sensorHub.unregister(registration);
+    registration = null;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.ros.internal.node.topic.SubscriberIdentifier;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.DefaultPublisherListener;
+import org.ros.node.topic.Publisher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks whether any of a set of {@link Publisher}s has subscribers so that
+ * expensive work (encoding, sensor registration, message building) can be
+ * suspended while nobody is listening.
+ *
+ * <p>
+ * Demand is raised immediately when a subscriber connects. rosjava does not
+ * signal disconnects, so the subscriber counts are polled to detect that
+ * demand went away.
+ */
+public class SubscriberDemand {
+
+  private static final long DEFAULT_POLL_PERIOD_MILLIS = 500;
+
+  /**
+   * Notified whenever demand appears or disappears. Called on a rosjava
+   * thread, so implementations must return quickly.
+   */
+  public interface Listener {
+    void onDemandChanged(boolean hasDemand);
+  }
+
+  private final List<Publisher<?>> publishers;
+  private final List<Listener> listeners;
+  private final ScheduledFuture<?> poller;
+
+  private volatile boolean hasDemand;
+
+  public SubscriberDemand(ConnectedNode connectedNode) {
+    this(connectedNode.getScheduledExecutorService(), DEFAULT_POLL_PERIOD_MILLIS);
+  }
+
+  public SubscriberDemand(ScheduledExecutorService executorService, long pollPeriodMillis) {
+    publishers = new CopyOnWriteArrayList<>();
+    listeners = new CopyOnWriteArrayList<>();
+    hasDemand = false;
+    poller = executorService.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        poll();
+      }
+    }, pollPeriodMillis, pollPeriodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Adds a publisher whose subscribers count as demand.
+   */
+  public <T> void watch(Publisher<T> publisher) {
+    publishers.add(publisher);
+    publisher.addListener(new DefaultPublisherListener<T>() {
+      @Override
+      public void onNewSubscriber(Publisher<T> publisher, SubscriberIdentifier subscriberIdentifier) {
+        setDemand(true);
+      }
+    });
+    poll();
+  }
+
+  /**
+   * Adds a listener and immediately tells it the current demand.
+   */
+  public void addListener(Listener listener) {
+    synchronized (listeners) {
+      listeners.add(listener);
+      listener.onDemandChanged(hasDemand);
+    }
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return {@code true} if at least one watched publisher has a subscriber
+   */
+  public boolean hasDemand() {
+    return hasDemand;
+  }
+
+  public void shutdown() {
+    poller.cancel(false);
+    listeners.clear();
+  }
+
+  private void poll() {
+    boolean subscribed = false;
+    for (Publisher<?> publisher : publishers) {
+      if (publisher.getNumberOfSubscribers() > 0) {
+        subscribed = true;
+        break;
+      }
+    }
+    setDemand(subscribed);
+  }
+
+  private void setDemand(boolean demand) {
+    synchronized (listeners) {
+      if (hasDemand == demand) {
+        return;
+      }
+      hasDemand = demand;
+      for (Listener listener : listeners) {
+        listener.onDemandChanged(demand);
+      }
+    }
+  }
+}
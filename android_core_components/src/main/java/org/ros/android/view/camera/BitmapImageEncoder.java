@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.Bitmap;
+
+import com.google.common.base.Preconditions;
+
+import java.io.OutputStream;
+
+/**
+ * Encodes frames with {@link Bitmap#compress}, e.g. to PNG or WebP.
+ *
+ * <p>
+ * NV21 frames are first converted to ARGB (BT.601, video range) into a pixel
+ * array and a {@link Bitmap} kept per thread and reused while the frame size
+ * stays the same.
+ */
+class BitmapImageEncoder implements ImageEncoder {
+    private final Bitmap.CompressFormat compressFormat;
+    private final String format;
+    private final boolean lossy;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        private int[] pixels;
+        private Bitmap bitmap;
+
+        private Bitmap get(int width, int height) {
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                pixels = new int[width * height];
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * @param format the {@link sensor_msgs.CompressedImage} format name,
+     *     e.g. {@code "png"}
+     */
+    BitmapImageEncoder(Bitmap.CompressFormat compressFormat, String format, boolean lossy) {
+        this.compressFormat = Preconditions.checkNotNull(compressFormat);
+        this.format = Preconditions.checkNotNull(format);
+        this.lossy = lossy;
+    }
+
+    @Override
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean isLossy() {
+        return lossy;
+    }
+
+    @Override
+    public boolean encode(byte[] nv21, int width, int height, int quality, OutputStream out) {
+        Scratch threadScratch = scratch.get();
+        Bitmap bitmap = threadScratch.get(width, height);
+        nv21ToArgb(nv21, width, height, threadScratch.pixels);
+        bitmap.setPixels(threadScratch.pixels, 0, width, 0, 0, width, height);
+        return bitmap.compress(compressFormat, quality, out);
+    }
+
+    @Override
+    public boolean encode(Bitmap bitmap, int quality, OutputStream out) {
+        return bitmap.compress(compressFormat, quality, out);
+    }
+
+    /**
+     * Converts an NV21 frame to opaque ARGB pixels in 10 bit fixed point.
+     */
+    static void nv21ToArgb(byte[] nv21, int width, int height, int[] argb) {
+        int chroma = width * height;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int chromaRow = chroma + (y >> 1) * width;
+            for (int x = 0; x < width; x++) {
+                int luma = Math.max(0, (nv21[row + x] & 0xff) - 16) * 1192;
+                int uv = chromaRow + (x & ~1);
+                int v = (nv21[uv] & 0xff) - 128;
+                int u = (nv21[uv + 1] & 0xff) - 128;
+                int r = clamp(luma + 1634 * v);
+                int g = clamp(luma - 833 * v - 400 * u);
+                int b = clamp(luma + 2066 * u);
+                argb[row + x] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 262143 ? 262143 : value);
+    }
+}
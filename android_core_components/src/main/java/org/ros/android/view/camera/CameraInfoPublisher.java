@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.os.Environment;
+import android.util.Log;
+
+import org.ros.android.Parameters;
+import org.ros.exception.ServiceException;
+import org.ros.message.Time;
+import org.ros.namespace.NameResolver;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.service.ServiceResponseBuilder;
+import org.ros.node.service.ServiceServer;
+import org.ros.node.topic.Publisher;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the calibration of a camera on {@code camera_info} and serves
+ * {@code set_camera_info}.
+ *
+ * <p>
+ * The calibration is loaded once from {@code camera.yaml} and replaced when
+ * {@code set_camera_info} is called; each message is filled from that cached
+ * {@link Template} without copying its matrices. By default it is published
+ * by a scheduled task at {@code ~camera_info_rate} Hz (1 by default). With
+ * {@code ~camera_info_lockstep} set, one message is published per image
+ * instead, with the image's stamp, for consumers that pair them exactly.
+ */
+class CameraInfoPublisher {
+    private static final String TAG = "CameraInfoPublisher";
+    private static final String DIRECTORY = "/RosCameraInfo";
+
+    /**
+     * An immutable calibration. The arrays are shared by every published
+     * message and must never be modified.
+     */
+    static final class Template {
+        private final int width;
+        private final int height;
+        private final String distortionModel;
+        private final double[] d;
+        private final double[] k;
+        private final double[] r;
+        private final double[] p;
+        /**
+         * The cropped and binned part of the frame that is published, or
+         * {@code null} for the full frame.
+         */
+        private final FrameCropper.Region region;
+
+        private Template(int width, int height, String distortionModel, double[] d, double[] k, double[] r,
+                         double[] p, FrameCropper.Region region) {
+            this.width = width;
+            this.height = height;
+            this.distortionModel = distortionModel;
+            this.d = d;
+            this.k = k;
+            this.r = r;
+            this.p = p;
+            this.region = region;
+        }
+
+        /**
+         * @return an uncalibrated template for images of the given size
+         */
+        static Template uncalibrated(int width, int height) {
+            return new Template(width, height, "", new double[0], new double[9], new double[9], new double[12],
+                    null);
+        }
+
+        static Template fromYaml(YamlCamera yamlCamera) {
+            return new Template(yamlCamera.getImageWidth(), yamlCamera.getImageHeight(),
+                    yamlCamera.getDistortionModel(),
+                    yamlCamera.getDistortionCoefficients().getData().clone(),
+                    yamlCamera.getCameraMatrix().getData().clone(),
+                    yamlCamera.getRectificationMatrix().getData().clone(),
+                    yamlCamera.getProjectionMatrix().getData().clone(), null);
+        }
+
+        static Template fromMessage(sensor_msgs.CameraInfo cameraInfo) {
+            return new Template(cameraInfo.getWidth(), cameraInfo.getHeight(), cameraInfo.getDistortionModel(),
+                    cameraInfo.getD().clone(), cameraInfo.getK().clone(), cameraInfo.getR().clone(),
+                    cameraInfo.getP().clone(), null);
+        }
+
+        Template withSize(int width, int height) {
+            return new Template(width, height, distortionModel, d, k, r, p, region);
+        }
+
+        Template withRegion(FrameCropper.Region region) {
+            return new Template(width, height, distortionModel, d, k, r, p, region);
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        void fill(sensor_msgs.CameraInfo cameraInfo) {
+            cameraInfo.setWidth(width);
+            cameraInfo.setHeight(height);
+            cameraInfo.setDistortionModel(distortionModel);
+            cameraInfo.setD(d);
+            cameraInfo.setK(k);
+            cameraInfo.setR(r);
+            cameraInfo.setP(p);
+            // All zeros, the default, stands for the full frame.
+            if (region != null && !(region.width == width && region.height == height && region.binning == 1)) {
+                cameraInfo.setBinningX(region.binning);
+                cameraInfo.setBinningY(region.binning);
+                cameraInfo.getRoi().setXOffset(region.x);
+                cameraInfo.getRoi().setYOffset(region.y);
+                cameraInfo.getRoi().setWidth(region.width);
+                cameraInfo.getRoi().setHeight(region.height);
+            }
+        }
+    }
+
+    private final ConnectedNode connectedNode;
+    private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
+    private final ServiceServer<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse> setCameraInfoService;
+    private final String yamlFile;
+    private final String frameId;
+    private final boolean lockstep;
+    private final ScheduledFuture<?> scheduledPublication;
+
+    private volatile Template template;
+
+    /**
+     * @param resolver the namespace of the image topics
+     */
+    public CameraInfoPublisher(ConnectedNode connectedNode, NameResolver resolver, String frameId) {
+        this.connectedNode = connectedNode;
+        this.frameId = frameId;
+        this.yamlFile = "camera.yaml";
+        this.template = Template.uncalibrated(0, 0);
+        cameraInfoPublisher =
+                connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
+        cameraInfoPublisher.setLatchMode(true);
+        setCameraInfoService =
+                connectedNode.newServiceServer(resolver.resolve("set_camera_info"), sensor_msgs.SetCameraInfo._TYPE,
+                        new ServiceResponseBuilder<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse>() {
+                            @Override
+                            public void build(sensor_msgs.SetCameraInfoRequest request, sensor_msgs.SetCameraInfoResponse response) throws ServiceException {
+                                setCalibration(Template.fromMessage(request.getCameraInfo()));
+                                if(saveCameraInfoYaml(request.getCameraInfo(), yamlFile)) {
+                                    response.setStatusMessage("Succeed to save camera.yaml");
+                                    response.setSuccess(true);
+                                }else {
+                                    response.setStatusMessage("Fail to save camera.yaml");
+                                    response.setSuccess(false);
+                                }
+                            }
+                        });
+        loadCameraInfoYaml(yamlFile);
+
+        ParameterTree parameters = connectedNode.getParameterTree();
+        lockstep = parameters.getBoolean("~camera_info_lockstep", false);
+        double rate = Parameters.getDouble(parameters, "~camera_info_rate", 1.0);
+        if (!lockstep && rate > 0) {
+            long periodMicros = (long) (1e6 / rate);
+            scheduledPublication = connectedNode.getScheduledExecutorService().scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (template.getWidth() == 0) {
+                        // No image yet.
+                        return;
+                    }
+                    try {
+                        publish(CameraInfoPublisher.this.connectedNode.getCurrentTime());
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to publish camera info.", e);
+                    }
+                }
+            }, 0, periodMicros, TimeUnit.MICROSECONDS);
+        } else {
+            scheduledPublication = null;
+        }
+    }
+
+    /**
+     * Called for every published image. Publishes a matching message in
+     * lockstep mode and otherwise only tracks the image size.
+     *
+     * @param width full resolution width of the camera frame
+     * @param height full resolution height of the camera frame
+     * @param region the part of the frame that is published, see
+     *     {@link FrameCropper#getAppliedRegion()}, or {@code null} for the full
+     *     frame
+     */
+    public void onImage(Time stamp, int width, int height, FrameCropper.Region region) {
+        Template current = template;
+        if (current.getWidth() != width || current.getHeight() != height) {
+            // Rare, the published size only changes with the camera configuration.
+            current = current.withSize(width, height);
+            template = current;
+        }
+        if (current.region != region) {
+            template = current.withRegion(region);
+        }
+        if (lockstep && cameraInfoPublisher.hasSubscribers()) {
+            publish(stamp);
+        }
+    }
+
+    public void shutdown() {
+        if (scheduledPublication != null) {
+            scheduledPublication.cancel(false);
+        }
+    }
+
+    private void setCalibration(Template calibration) {
+        Template current = template;
+        template = current.getWidth() > 0
+                ? calibration.withSize(current.getWidth(), current.getHeight()).withRegion(current.region)
+                : calibration;
+    }
+
+    private void publish(Time stamp) {
+        sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
+        cameraInfo.getHeader().setStamp(stamp);
+        cameraInfo.getHeader().setFrameId(frameId);
+        template.fill(cameraInfo);
+        cameraInfoPublisher.publish(cameraInfo);
+    }
+
+    public boolean loadCameraInfoYaml(String fileName) {
+        Yaml yaml = new Yaml();
+        File file = new File(Environment.getExternalStorageDirectory() + DIRECTORY,  fileName);
+        if(file.exists()) {
+            try{
+                InputStream reader = new FileInputStream(file);
+                YamlCamera yamlCamera = yaml.loadAs(reader, YamlCamera.class);
+                reader.close();
+
+                if(yamlCamera.getCameraName() == null || yamlCamera.getDistortionModel() == null) {
+                    Log.i(TAG, "Fail to load camera.yaml.");
+                    return false;
+                }else {
+                    setCalibration(Template.fromYaml(yamlCamera));
+                    Log.i(TAG, "Succeed to load camera.yaml.");
+                    return true;
+                }
+            } catch (Exception e){
+                e.printStackTrace();
+                Log.e(TAG, "Fail to load yaml file!");
+                return false;
+            }
+        } else {
+            Log.e(TAG, "The camera.yaml isn't exist!");
+            return false;
+        }
+    }
+
+    public boolean saveCameraInfoYaml(sensor_msgs.CameraInfo cameraInfo, String fileName) {
+        try{
+            if(Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+                File file = makeDirAndFile(Environment.getExternalStorageDirectory() + DIRECTORY, fileName);
+                if (file != null) {
+                    YamlCamera yamlCameraInfo = new YamlCamera();
+                    yamlCameraInfo.setImageHeight(cameraInfo.getHeight());
+                    yamlCameraInfo.setImageWidth(cameraInfo.getWidth());
+                    yamlCameraInfo.setCameraName(cameraInfo.getHeader().getFrameId());
+                    yamlCameraInfo.setDistortionModel(cameraInfo.getDistortionModel());
+
+                    yamlCameraInfo.getCameraMatrix().setData(cameraInfo.getK());
+                    yamlCameraInfo.getDistortionCoefficients().setData(cameraInfo.getD());
+                    yamlCameraInfo.getRectificationMatrix().setData(cameraInfo.getR());
+                    yamlCameraInfo.getProjectionMatrix().setData(cameraInfo.getP());
+
+                    FileOutputStream writer = new FileOutputStream(file);
+                    writer.write(yamlCameraInfo.toString().getBytes());
+                    writer.close();
+                    return true;
+                } else {
+                    Log.e(TAG, "Can't Create camera.yaml!");
+                    return false;
+                }
+            }else {
+                Log.e(TAG, "Can't read external storage!");
+                return false;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "Can't save camera.yaml!");
+            return false;
+        }
+    }
+
+    //create dir and file
+    private File makeDirAndFile(String filePath, String fileName) {
+        File dir = null;
+        try {
+            dir = new File(filePath);
+            if(!dir.exists()) {
+                dir.mkdir();
+            }
+        }catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        File file = null;
+        try{
+            file = new File(filePath, fileName);
+            if(!file.exists()) {
+                file.createNewFile();
+            }
+        }catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        return file;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.os.SystemClock;
+
+import org.ros.android.DiagnosticsPublisher;
+import org.ros.android.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of each stage a camera frame passes through on its way to the
+ * publisher.
+ *
+ * <p>
+ * All timestamps are on the {@link SystemClock#elapsedRealtimeNanos()} clock,
+ * see {@link #now()}. Recording never blocks or allocates. Percentiles are
+ * available since start through {@link #getPercentileNanos(Stage, double)},
+ * and for the last reporting period through the {@code /diagnostics} topic
+ * when registered with a {@link DiagnosticsPublisher}, together with the
+ * encoder format and the compression ratio (raw NV21 bytes per encoded byte).
+ */
+public class CameraPipelineStats implements DiagnosticsPublisher.Source {
+
+    public enum Stage {
+        /** From exposure to the frame reaching the application. */
+        CAPTURE("capture"),
+        /** From the frame reaching the application to the start of encoding. */
+        QUEUE("queue"),
+        ENCODE("encode"),
+        /** From the end of encoding to handing the message to the publisher. */
+        PUBLISH("publish"),
+        /** From exposure, or from arrival if the exposure time is unknown, to publication. */
+        TOTAL("total");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String name;
+    private final LatencyHistogram[] histograms;
+    private final long[][] reported;
+    private final long[] snapshot;
+    private final AtomicLong framesPublished;
+    private final AtomicLong framesDropped;
+    private final AtomicLong framesSkipped;
+    private final AtomicLong rawBytes;
+    private final AtomicLong encodedBytes;
+    private volatile String format = "";
+    private long reportedPublished;
+    private long reportedDropped;
+    private long reportedRawBytes;
+    private long reportedEncodedBytes;
+
+    public CameraPipelineStats(String name) {
+        this.name = name;
+        histograms = new LatencyHistogram[STAGES.length];
+        reported = new long[STAGES.length][LatencyHistogram.getBucketCount()];
+        for (int i = 0; i < STAGES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        snapshot = new long[LatencyHistogram.getBucketCount()];
+        framesPublished = new AtomicLong();
+        framesDropped = new AtomicLong();
+        framesSkipped = new AtomicLong();
+        rawBytes = new AtomicLong();
+        encodedBytes = new AtomicLong();
+    }
+
+    /**
+     * @return the clock all timestamps passed to this class are read from
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records one published frame.
+     *
+     * @param sensorNanos start of exposure, or 0 if unknown
+     * @param arrivalNanos time the frame was delivered by the camera
+     */
+    void record(long sensorNanos, long arrivalNanos, long encodeStartNanos, long encodeEndNanos,
+                long publishNanos) {
+        if (sensorNanos > 0) {
+            histograms[Stage.CAPTURE.ordinal()].recordNanos(arrivalNanos - sensorNanos);
+        }
+        histograms[Stage.QUEUE.ordinal()].recordNanos(encodeStartNanos - arrivalNanos);
+        histograms[Stage.ENCODE.ordinal()].recordNanos(encodeEndNanos - encodeStartNanos);
+        histograms[Stage.PUBLISH.ordinal()].recordNanos(publishNanos - encodeEndNanos);
+        histograms[Stage.TOTAL.ordinal()].recordNanos(publishNanos - (sensorNanos > 0 ? sensorNanos : arrivalNanos));
+        framesPublished.incrementAndGet();
+    }
+
+    /**
+     * Records the output of the encoder for one frame.
+     *
+     * @param rawBytes size of the frame handed to the encoder
+     * @param encodedBytes size of the encoded frame
+     */
+    void recordEncoded(String format, long rawBytes, long encodedBytes) {
+        this.format = format;
+        this.rawBytes.addAndGet(rawBytes);
+        this.encodedBytes.addAndGet(encodedBytes);
+    }
+
+    /**
+     * Records a frame that was discarded before publication.
+     */
+    void recordDropped() {
+        framesDropped.incrementAndGet();
+    }
+
+    /**
+     * Records a frame that was not published because the scene did not
+     * change.
+     */
+    void recordSkipped() {
+        framesSkipped.incrementAndGet();
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 50 or 99
+     * @return the latency of {@code stage} since start, or 0 if nothing was
+     *     recorded
+     */
+    public long getPercentileNanos(Stage stage, double percentile) {
+        return histograms[stage.ordinal()].getPercentileNanos(percentile);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public long getFramesPublished() {
+        return framesPublished.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+
+    /**
+     * @return the format of the last encoded frame, or an empty string
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return raw bytes per encoded byte since start, or 0 if nothing was
+     *     encoded
+     */
+    public double getCompressionRatio() {
+        return ratio(rawBytes.get(), encodedBytes.get());
+    }
+
+    private static double ratio(long raw, long encoded) {
+        return encoded > 0 ? (double) raw / encoded : 0;
+    }
+
+    @Override
+    public synchronized void update(DiagnosticsPublisher publisher, diagnostic_msgs.DiagnosticStatus status) {
+        long published = framesPublished.get();
+        long dropped = framesDropped.get();
+        status.setName(name);
+        status.setHardwareId("camera");
+        status.setMessage((published - reportedPublished) + " frames published, "
+                + (dropped - reportedDropped) + " dropped");
+        publisher.addValue(status, "frames published", published);
+        publisher.addValue(status, "frames dropped", dropped);
+        publisher.addValue(status, "frames skipped (no motion)", framesSkipped.get());
+        long raw = rawBytes.get();
+        long encoded = encodedBytes.get();
+        publisher.addValue(status, "format", format);
+        publisher.addValue(status, "compression ratio",
+                String.format(Locale.US, "%.1f", ratio(raw - reportedRawBytes, encoded - reportedEncodedBytes)));
+        reportedRawBytes = raw;
+        reportedEncodedBytes = encoded;
+        for (int i = 0; i < STAGES.length; i++) {
+            // Percentiles of this period only: subtract the counts reported last time.
+            histograms[i].snapshot(snapshot);
+            long[] previous = reported[i];
+            for (int j = 0; j < snapshot.length; j++) {
+                long count = snapshot[j];
+                snapshot[j] = count - previous[j];
+                previous[j] = count;
+            }
+            publisher.addMillis(status, STAGES[i].label + " p50 (ms)", LatencyHistogram.getPercentileNanos(snapshot, 50));
+            publisher.addMillis(status, STAGES[i].label + " p99 (ms)", LatencyHistogram.getPercentileNanos(snapshot, 99));
+        }
+        reportedPublished = published;
+        reportedDropped = dropped;
+    }
+}
@@ -42,23 +42,35 @@ import java.util.List;
 public class CameraPreviewView extends ViewGroup {
 
   private final static double ASPECT_TOLERANCE = 0.1;
+  private final static int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+
+  private final Object cameraMutex = new Object();
 
   private SurfaceHolder surfaceHolder;
   private Camera camera;
   private Size previewSize;
-  private byte[] previewBuffer;
-  private RawImageListener rawImageListener;
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+  private PreviewFrameDispatcher previewFrameDispatcher;
   private BufferingPreviewCallback bufferingPreviewCallback;
 
   private final class BufferingPreviewCallback implements PreviewCallback {
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
       Preconditions.checkArgument(camera == CameraPreviewView.this.camera);
-      Preconditions.checkArgument(data == previewBuffer);
-      if (rawImageListener != null) {
-        rawImageListener.onNewRawImage(data, previewSize);
+      previewFrameDispatcher.dispatch(data, previewSize);
+    }
+  }
+
+  private final class PreviewBufferRecycler implements PreviewFrameDispatcher.BufferRecycler {
+    @Override
+    public void recycle(byte[] buffer) {
+      synchronized (cameraMutex) {
+        // Buffers that come back after the camera was released are simply
+        // dropped. A newly set camera allocates its own.
+        if (camera != null && buffer.length == getPreviewBufferSize()) {
+          camera.addCallbackBuffer(buffer);
+        }
       }
-      camera.addCallbackBuffer(previewBuffer);
     }
   }
 
@@ -91,6 +103,7 @@ public class CameraPreviewView extends ViewGroup {
     surfaceHolder.addCallback(new SurfaceHolderCallback());
     surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
     bufferingPreviewCallback = new BufferingPreviewCallback();
+    previewFrameDispatcher = new PreviewFrameDispatcher(new PreviewBufferRecycler());
   }
 
   public CameraPreviewView(Context context) {
@@ -109,17 +122,50 @@ public class CameraPreviewView extends ViewGroup {
   }
 
   public void releaseCamera() {
-    if (camera == null) {
-      return;
+    synchronized (cameraMutex) {
+      if (camera == null) {
+        return;
+      }
+      camera.setPreviewCallbackWithBuffer(null);
+      camera.stopPreview();
+      camera.release();
+      camera = null;
     }
-    camera.setPreviewCallbackWithBuffer(null);
-    camera.stopPreview();
-    camera.release();
-    camera = null;
+    previewFrameDispatcher.shutdown();
   }
 
   public void setRawImageListener(RawImageListener rawImageListener) {
-    this.rawImageListener = rawImageListener;
+    previewFrameDispatcher.setRawImageListener(rawImageListener);
+  }
+
+  /**
+   * Sets the number of preview buffers that circulate between the camera and
+   * the encoder thread. Takes effect the next time a camera is set.
+   */
+  public void setPreviewBufferCount(int previewBufferCount) {
+    Preconditions.checkArgument(previewBufferCount >= 2);
+    this.previewBufferCount = previewBufferCount;
+  }
+
+  /**
+   * @return the number of preview frames delivered by the camera
+   */
+  public long getFramesCaptured() {
+    return previewFrameDispatcher.getFramesCaptured();
+  }
+
+  /**
+   * @return the number of preview frames handed to the {@link RawImageListener}
+   */
+  public long getFramesEncoded() {
+    return previewFrameDispatcher.getFramesEncoded();
+  }
+
+  /**
+   * @return the number of preview frames superseded before they were encoded
+   */
+  public long getFramesDropped() {
+    return previewFrameDispatcher.getFramesDropped();
   }
 
   public Size getPreviewSize() {
@@ -128,9 +174,12 @@ public class CameraPreviewView extends ViewGroup {
 
   public void setCamera(Camera camera) {
     Preconditions.checkNotNull(camera);
-    this.camera = camera;
-    setupCameraParameters();
-    setupBufferingPreviewCallback();
+    synchronized (cameraMutex) {
+      this.camera = camera;
+      setupCameraParameters();
+      setupBufferingPreviewCallback();
+    }
+    previewFrameDispatcher.start();
     camera.startPreview();
     try {
       // This may have no effect if the SurfaceHolder is not yet created.
@@ -192,11 +241,17 @@ public class CameraPreviewView extends ViewGroup {
     return optimalSize;
   }
 
+  private int getPreviewBufferSize() {
+    int bits_per_pixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+    return previewSize.height * previewSize.width * bits_per_pixel / 8;
+  }
+
   private void setupBufferingPreviewCallback() {
-    int format = camera.getParameters().getPreviewFormat();
-    int bits_per_pixel = ImageFormat.getBitsPerPixel(format);
-    previewBuffer = new byte[previewSize.height * previewSize.width * bits_per_pixel / 8];
-    camera.addCallbackBuffer(previewBuffer);
+    // One buffer is filled by the camera while the others wait for or are being
+    // processed by the encoder thread.
+    for (int i = 0; i < previewBufferCount; i++) {
+      camera.addCallbackBuffer(new byte[getPreviewBufferSize()]);
+    }
     camera.setPreviewCallbackWithBuffer(bufferingPreviewCallback);
   }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.android.MessageRing;
+
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Reference counted pool of {@link ChannelBuffer}s that are used as the data
+ * field of outgoing image messages, so that the compressed bytes are written
+ * exactly once and no per-frame heap buffer is allocated.
+ *
+ * <p>
+ * rosjava gives no notification once a message has been serialized. The
+ * publisher's outgoing queue holds at most {@link #PUBLISHER_QUEUE_CAPACITY}
+ * messages (dropping the oldest when full) and its writer serializes one
+ * message at a time, so a buffer is known to be unreferenced by the publisher
+ * once {@link #RELEASE_DISTANCE} newer messages were published after it.
+ *
+ * <p>
+ * One pool must be used per {@link org.ros.node.topic.Publisher}, and that
+ * publisher must not be latched.
+ */
+class CompressedImageBufferPool {
+    static final int PUBLISHER_QUEUE_CAPACITY = MessageRing.PUBLISHER_QUEUE_CAPACITY;
+    static final int RELEASE_DISTANCE = MessageRing.RELEASE_DISTANCE;
+
+    private static final int MINIMUM_CAPACITY = 16 * 1024;
+    private static final int MAXIMUM_IDLE_BUFFERS = 4;
+
+    /**
+     * A pooled buffer together with the stream writing into it.
+     */
+    static final class PooledBuffer {
+        private final ChannelBuffer buffer;
+        private final ChannelBufferOutputStream stream;
+        private int referenceCount;
+        private long publication;
+
+        private PooledBuffer(int capacity) {
+            buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, capacity);
+            stream = new ChannelBufferOutputStream(buffer);
+        }
+
+        ChannelBuffer getBuffer() {
+            return buffer;
+        }
+
+        ChannelBufferOutputStream getStream() {
+            return stream;
+        }
+    }
+
+    private final ArrayDeque<PooledBuffer> freeBuffers;
+    private final ArrayDeque<PooledBuffer> publishedBuffers;
+    private long publications;
+    private int estimatedSize;
+    private int allocations;
+
+    public CompressedImageBufferPool() {
+        freeBuffers = new ArrayDeque<>();
+        publishedBuffers = new ArrayDeque<>();
+        publications = 0;
+        estimatedSize = MINIMUM_CAPACITY;
+        allocations = 0;
+    }
+
+    /**
+     * @return an empty buffer owned by the caller, who must {@link #release} it
+     */
+    public synchronized PooledBuffer acquire() {
+        PooledBuffer pooledBuffer = freeBuffers.pollFirst();
+        if (pooledBuffer == null) {
+            // Leave some headroom so that slightly larger frames do not make the
+            // dynamic buffer reallocate.
+            pooledBuffer = new PooledBuffer(Math.max(MINIMUM_CAPACITY, estimatedSize + estimatedSize / 4));
+            allocations++;
+        }
+        pooledBuffer.buffer.clear();
+        pooledBuffer.referenceCount = 1;
+        return pooledBuffer;
+    }
+
+    /**
+     * Records that a message referencing the buffer was just published. The
+     * publisher's reference is dropped automatically once the message can no
+     * longer be waiting for serialization.
+     */
+    public synchronized void published(PooledBuffer pooledBuffer) {
+        Preconditions.checkState(pooledBuffer.referenceCount > 0);
+        estimatedSize += (pooledBuffer.buffer.readableBytes() - estimatedSize) / 8;
+        pooledBuffer.referenceCount++;
+        pooledBuffer.publication = publications++;
+        publishedBuffers.addLast(pooledBuffer);
+        while (!publishedBuffers.isEmpty()
+                && publications - publishedBuffers.peekFirst().publication > RELEASE_DISTANCE) {
+            release(publishedBuffers.pollFirst());
+        }
+    }
+
+    public synchronized void release(PooledBuffer pooledBuffer) {
+        Preconditions.checkState(pooledBuffer.referenceCount > 0);
+        if (--pooledBuffer.referenceCount > 0) {
+            return;
+        }
+        // Buffers that grew far beyond recent frame sizes are left to the GC so
+        // that one large frame does not pin memory forever.
+        boolean oversized = pooledBuffer.buffer.capacity() > 4 * Math.max(MINIMUM_CAPACITY, estimatedSize);
+        if (!oversized && freeBuffers.size() < RELEASE_DISTANCE + MAXIMUM_IDLE_BUFFERS) {
+            freeBuffers.addLast(pooledBuffer);
+        }
+    }
+
+    /**
+     * @return the number of buffers allocated since the pool was created
+     */
+    public synchronized int getAllocations() {
+        return allocations;
+    }
+}
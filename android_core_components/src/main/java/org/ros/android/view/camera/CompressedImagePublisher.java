@@ -16,26 +16,14 @@
 package org.ros.android.view.camera;
 
 import com.google.common.base.Preconditions;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.hardware.Camera.Size;
-import android.os.Environment;
-import android.util.Log;
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.exception.ServiceException;
-import org.ros.internal.message.MessageBuffers;
+import org.ros.android.DiagnosticsPublisher;
+import org.ros.android.SensorClock;
+import org.ros.android.SubscriberDemand;
 import org.ros.message.Time;
 import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
-import org.ros.node.service.ServiceResponseBuilder;
-import org.ros.node.service.ServiceServer;
 import org.ros.node.topic.Publisher;
-import org.yaml.snakeyaml.Yaml;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 
 
 /**
@@ -49,188 +37,89 @@ class CompressedImagePublisher implements RawImageListener {
 
     private final ConnectedNode connectedNode;
     private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
-    private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
-    private final ServiceServer<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse> setCameraInfoService;
-
-    private Time lastTime;
-    private YamlCamera yamlCamera;
-    private String yamlFile;
-    private boolean loadStatus;
-    private byte[] rawImageBuffer;
-    private Size rawImageSize;
-    private YuvImage yuvImage;
-    private Rect rect;
-    private ChannelBufferOutputStream stream;
+    private final CameraInfoPublisher cameraInfoPublisher;
+    private final SubscriberDemand imageDemand;
+    private final EncoderPool encoderPool;
+    private final CompressedImageStream imageStream;
+    private final ImagePyramidPublisher pyramidPublisher;
+    private final FrameCropper frameCropper;
+    private final CameraPipelineStats pipelineStats;
+    private final DiagnosticsPublisher diagnosticsPublisher;
+    private final SensorClock sensorClock;
+    private volatile boolean shutdown;
     public static  int controlImageSendFrequency=0;
 
     public CompressedImagePublisher(ConnectedNode connectedNode) {
         this.connectedNode = connectedNode;
-        this.loadStatus = false;
-        this.yamlFile = "camera.yaml";
-        this.lastTime = connectedNode.getCurrentTime();
+        sensorClock = new SensorClock(connectedNode);
 
         NameResolver resolver = connectedNode.getResolver().newChild("android");
         imagePublisher =
                 connectedNode.newPublisher(resolver.resolve("image_raw/compressed"), sensor_msgs.CompressedImage._TYPE);
 
-        cameraInfoPublisher =
-                connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
-        cameraInfoPublisher.setLatchMode(true);
-        setCameraInfoService =
-                connectedNode.newServiceServer(resolver.resolve("set_camera_info"), sensor_msgs.SetCameraInfo._TYPE,
-                        new ServiceResponseBuilder<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse>() {
-                            @Override
-                            public void build(sensor_msgs.SetCameraInfoRequest request, sensor_msgs.SetCameraInfoResponse response) throws ServiceException {
-                                if(saveCameraInfoYaml(request.getCameraInfo(), yamlFile)) {
-                                    response.setStatusMessage("Succeed to save camera.yaml");
-                                    response.setSuccess(true);
-                                }else {
-                                    response.setStatusMessage("Fail to save camera.yaml");
-                                    response.setSuccess(false);
-                                }
-                            }
-                        });
-        stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
-        loadStatus = loadCameraInfoYaml(yamlFile);
+        cameraInfoPublisher = new CameraInfoPublisher(connectedNode, resolver, "camera");
+        imageDemand = new SubscriberDemand(connectedNode);
+        imageDemand.watch(imagePublisher);
+        pipelineStats = new CameraPipelineStats(imagePublisher.getTopicName().toString());
+        diagnosticsPublisher = new DiagnosticsPublisher(connectedNode);
+        diagnosticsPublisher.addSource(pipelineStats);
+        encoderPool = EncoderPool.fromParameters(connectedNode);
+        // The full resolution stream and the pyramid share one bandwidth budget.
+        JpegQualityController qualityController = JpegQualityController.fromParameters(connectedNode);
+        imageStream = new CompressedImageStream(imagePublisher, new CompressedImageBufferPool(),
+                qualityController, pipelineStats, encoderPool,
+                EncoderPool.windowFromParameters(connectedNode, encoderPool));
+        imageStream.setMotionGate(MotionGate.fromParameters(connectedNode));
+        ImageEncoders.bind(connectedNode, "~image_format", ImageEncoders.DEFAULT_FORMAT, imageStream);
+        imageStream.setLatencyPublisher(connectedNode.<std_msgs.Duration>newPublisher(
+                resolver.resolve("image_raw/latency"), std_msgs.Duration._TYPE));
+        frameCropper = FrameCropper.fromParameters(connectedNode);
+        pyramidPublisher = new ImagePyramidPublisher(connectedNode, resolver, "camera", encoderPool,
+                qualityController);
     }
 
 
-    long startpu =0;
     @Override
-    public void onNewRawImage(byte[] data, Size size) {
-//        if (System.currentTimeMillis()-startpu<20){
-//            return;//控制发送图片频率100ms 10HZ
-//        }
-        Log.e("图像频率",1000/(System.currentTimeMillis()-startpu)+" hz ");
+    public void onNewRawImage(byte[] data, Size size, long arrivalNanos) {
         Preconditions.checkNotNull(data);
         Preconditions.checkNotNull(size);
-
-        if (data != rawImageBuffer || !size.equals(rawImageSize)) {
-            rawImageBuffer = data;
-            rawImageSize = size;
-            yuvImage = new YuvImage(rawImageBuffer, ImageFormat.NV21, size.width, size.height, null);
-            rect = new Rect(0, 0, size.width, size.height);
+        if (shutdown) {
+            return;
         }
 
-        Time currentTime = connectedNode.getCurrentTime();
+        // The legacy API does not report exposure times: stamp with the arrival.
+        Time currentTime = sensorClock.toRosTime(arrivalNanos);
         String frameId = "camera";
 
-        sensor_msgs.CompressedImage image = imagePublisher.newMessage();
-        image.setFormat("jpeg");
-        image.getHeader().setStamp(currentTime);
-        image.getHeader().setFrameId(frameId);
-
-        Preconditions.checkState(yuvImage.compressToJpeg(rect, 90, stream));
-        image.setData(stream.buffer().copy());
-        stream.buffer().clear();
-        imagePublisher.publish(image);
-        startpu = System.currentTimeMillis();
-        if(currentTime.subtract(lastTime).secs == 1)
-        {
-            sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
-            cameraInfo.getHeader().setStamp(currentTime);
-            cameraInfo.getHeader().setFrameId(frameId);
-            cameraInfo.setWidth(size.width);
-            cameraInfo.setHeight(size.height);
-
-            if(loadStatus == true) {
-                cameraInfo.setDistortionModel(yamlCamera.getDistortionModel());
-                cameraInfo.setD(yamlCamera.getDistortionCoefficients().getData());
-                cameraInfo.setK(yamlCamera.getCameraMatrix().getData());
-                cameraInfo.setR(yamlCamera.getRectificationMatrix().getData());
-                cameraInfo.setP(yamlCamera.getProjectionMatrix().getData());
-            }
-            cameraInfoPublisher.publish(cameraInfo);
-            lastTime = currentTime;
+        // Nobody is listening, skip the encoder until a subscriber shows up.
+        if (imageDemand.hasDemand()) {
+            byte[] cropped = frameCropper.apply(data, size.width, size.height);
+            imageStream.publish(cropped, frameCropper.getOutputWidth(), frameCropper.getOutputHeight(),
+                    currentTime, frameId, 0, arrivalNanos);
         }
+        pyramidPublisher.publish(data, size.width, size.height, currentTime, 0, arrivalNanos);
+        cameraInfoPublisher.onImage(currentTime, size.width, size.height, frameCropper.getAppliedRegion());
     }
 
-    public boolean loadCameraInfoYaml(String fileName) {
-        Yaml yaml = new Yaml();
-        File file = new File(Environment.getExternalStorageDirectory() + "/RosCameraInfo",  fileName);
-        Log.e("我的Path: ",file.getAbsolutePath());
-        if(file.exists()) {
-            try{
-                //InputStream reader = CompressedImagePublisher.class.getResourceAsStream("/camera.yaml");
-                InputStream reader = new FileInputStream(file);
-                this.yamlCamera = yaml.loadAs(reader, YamlCamera.class);
-
-                if(yamlCamera.getCameraName() == null || yamlCamera.getDistortionModel() == null) {
-                    Log.i(TAG, "Fail to load camera.yaml.");
-                    return false;
-                }else {
-                    Log.i(TAG, "Succeed to load camera.yaml.");
-                    return true;
-                }
-            } catch (Exception e){
-                e.printStackTrace();
-                Log.e(TAG, "Fail to load yaml file!");
-                return false;
-            }
-        } else {
-            Log.e(TAG, "The camera.yaml isn't exist!");
-            return false;
-        }
+    /**
+     * @return per-stage latency of the frames published so far
+     */
+    public CameraPipelineStats getPipelineStats() {
+        return pipelineStats;
     }
 
-    public boolean saveCameraInfoYaml(sensor_msgs.CameraInfo cameraInfo, String fileName) {
-        try{
-            if(Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-                File file = makeDirAndFile(Environment.getExternalStorageDirectory() + "/RosCameraInfo", fileName);
-                if (file != null) {
-                    YamlCamera yamlCameraInfo = new YamlCamera();
-                    yamlCameraInfo.setImageHeight(cameraInfo.getHeight());
-                    yamlCameraInfo.setImageWidth(cameraInfo.getWidth());
-                    yamlCameraInfo.setCameraName(cameraInfo.getHeader().getFrameId());
-                    yamlCameraInfo.setDistortionModel(cameraInfo.getDistortionModel());
-
-                    yamlCameraInfo.getCameraMatrix().setData(cameraInfo.getK());
-                    yamlCameraInfo.getDistortionCoefficients().setData(cameraInfo.getD());
-                    yamlCameraInfo.getRectificationMatrix().setData(cameraInfo.getR());
-                    yamlCameraInfo.getProjectionMatrix().setData(cameraInfo.getP());
-
-                    FileOutputStream writer = new FileOutputStream(file);
-                    writer.write(yamlCameraInfo.toString().getBytes());
-                    writer.close();
-                    return true;
-                } else {
-                    Log.e(TAG, "Can't Create camera.yaml!");
-                    return false;
-                }
-            }else {
-                Log.e(TAG, "Can't read external storage!");
-                return false;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.e(TAG, "Can't save camera.yaml!");
-            return false;
-        }
-    }
-
-    //create dir and file
-    private File makeDirAndFile(String filePath, String fileName) {
-        File dir = null;
-        try {
-            dir = new File(filePath);
-            if(!dir.exists()) {
-                dir.mkdir();
-            }
-        }catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-
-        File file = null;
-        try{
-            file = new File(filePath, fileName);
-            if(!file.exists()) {
-                file.createNewFile();
-            }
-        }catch (Exception e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * Stops publishing. Frames delivered afterwards are ignored, so none
+     * reaches the encoder pool once it is shut down.
+     */
+    public void shutdown() {
+        shutdown = true;
+        cameraInfoPublisher.shutdown();
+        pyramidPublisher.shutdown();
+        diagnosticsPublisher.shutdown();
+        imageDemand.shutdown();
+        if (encoderPool != null) {
+            encoderPool.shutdown();
         }
-        return file;
     }
-}
\ No newline at end of file
+}
@@ -16,30 +16,16 @@
 package org.ros.android.view.camera;
 
 import android.graphics.Bitmap;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.hardware.Camera.Size;
-import android.os.Environment;
-import android.util.Log;
 
 import com.google.common.base.Preconditions;
 
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.exception.ServiceException;
-import org.ros.internal.message.MessageBuffers;
+import org.ros.android.DiagnosticsPublisher;
+import org.ros.android.SensorClock;
+import org.ros.android.SubscriberDemand;
 import org.ros.message.Time;
 import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
-import org.ros.node.service.ServiceResponseBuilder;
-import org.ros.node.service.ServiceServer;
 import org.ros.node.topic.Publisher;
-import org.yaml.snakeyaml.Yaml;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 
 
 /**
@@ -53,176 +39,169 @@ class CompressedImagePublisher2  {
 
     private final ConnectedNode connectedNode;
     private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
-    private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
-    private final ServiceServer<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse> setCameraInfoService;
-
-    private Time lastTime;
-    private YamlCamera yamlCamera;
-    private String yamlFile;
-    private boolean loadStatus;
-    private byte[] rawImageBuffer;
-    private YuvImage yuvImage;
-    private Rect rect;
-    private ChannelBufferOutputStream stream;
+    private final CameraInfoPublisher cameraInfoPublisher;
+    private final CompressedImageBufferPool bufferPool;
+    private final SubscriberDemand imageDemand;
+    private final JpegQualityController qualityController;
+    private final EncoderPool encoderPool;
+    private final boolean ownsEncoderPool;
+    private final String frameId;
+    private final CompressedImageStream imageStream;
+    private final ImagePyramidPublisher pyramidPublisher;
+    private final FrameCropper frameCropper;
+    private final CameraPipelineStats pipelineStats;
+    private final DiagnosticsPublisher diagnosticsPublisher;
+    private final SensorClock sensorClock;
+    private volatile boolean shutdown;
     public static  int controlImageSendFrequency=0;
 
     public CompressedImagePublisher2(ConnectedNode connectedNode) {
+        this(connectedNode, connectedNode.getResolver().newChild("android"), "camera",
+                EncoderPool.fromParameters(connectedNode), true, JpegQualityController.fromParameters(connectedNode),
+                new SensorClock(connectedNode));
+    }
+
+    /**
+     * @param resolver namespace of the image topics
+     * @param encoderPool pool shared with other cameras, or {@code null} to
+     *     encode on the thread delivering the frames. It is not shut down with
+     *     this publisher.
+     * @param qualityController quality loop of this camera's streams, which
+     *     may be shared with other cameras to split one bandwidth budget
+     * @param sensorClock maps capture times to the stamps of the images
+     */
+    public CompressedImagePublisher2(ConnectedNode connectedNode, NameResolver resolver, String frameId,
+                                     EncoderPool encoderPool, JpegQualityController qualityController,
+                                     SensorClock sensorClock) {
+        this(connectedNode, resolver, frameId, encoderPool, false, qualityController, sensorClock);
+    }
+
+    private CompressedImagePublisher2(ConnectedNode connectedNode, NameResolver resolver, String frameId,
+                                      EncoderPool encoderPool, boolean ownsEncoderPool,
+                                      JpegQualityController qualityController, SensorClock sensorClock) {
         this.connectedNode = connectedNode;
-        this.loadStatus = false;
-        this.yamlFile = "camera.yaml";
-        this.lastTime = connectedNode.getCurrentTime();
+        this.frameId = frameId;
+        this.encoderPool = encoderPool;
+        this.ownsEncoderPool = ownsEncoderPool;
+        this.qualityController = qualityController;
+        this.sensorClock = sensorClock;
 
-        NameResolver resolver = connectedNode.getResolver().newChild("android");
         imagePublisher =
                 connectedNode.newPublisher(resolver.resolve("image_raw/compressed"), sensor_msgs.CompressedImage._TYPE);
 
-        cameraInfoPublisher =
-                connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
-        cameraInfoPublisher.setLatchMode(true);
-        setCameraInfoService =
-                connectedNode.newServiceServer(resolver.resolve("set_camera_info"), sensor_msgs.SetCameraInfo._TYPE,
-                        new ServiceResponseBuilder<sensor_msgs.SetCameraInfoRequest, sensor_msgs.SetCameraInfoResponse>() {
-                            @Override
-                            public void build(sensor_msgs.SetCameraInfoRequest request, sensor_msgs.SetCameraInfoResponse response) throws ServiceException {
-                                if(saveCameraInfoYaml(request.getCameraInfo(), yamlFile)) {
-                                    response.setStatusMessage("Succeed to save camera.yaml");
-                                    response.setSuccess(true);
-                                }else {
-                                    response.setStatusMessage("Fail to save camera.yaml");
-                                    response.setSuccess(false);
-                                }
-                            }
-                        });
-        stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
-        loadStatus = loadCameraInfoYaml(yamlFile);
+        cameraInfoPublisher = new CameraInfoPublisher(connectedNode, resolver, frameId);
+        bufferPool = new CompressedImageBufferPool();
+        imageDemand = new SubscriberDemand(connectedNode);
+        imageDemand.watch(imagePublisher);
+        pipelineStats = new CameraPipelineStats(imagePublisher.getTopicName().toString());
+        diagnosticsPublisher = new DiagnosticsPublisher(connectedNode);
+        diagnosticsPublisher.addSource(pipelineStats);
+        imageStream = new CompressedImageStream(imagePublisher, bufferPool, qualityController, pipelineStats,
+                encoderPool, EncoderPool.windowFromParameters(connectedNode, encoderPool));
+        imageStream.setMotionGate(MotionGate.fromParameters(connectedNode));
+        ImageEncoders.bind(connectedNode, "~image_format", ImageEncoders.DEFAULT_FORMAT, imageStream);
+        imageStream.setLatencyPublisher(connectedNode.<std_msgs.Duration>newPublisher(
+                resolver.resolve("image_raw/latency"), std_msgs.Duration._TYPE));
+        frameCropper = FrameCropper.fromParameters(connectedNode);
+        pyramidPublisher = new ImagePyramidPublisher(connectedNode, resolver, frameId, encoderPool, qualityController);
     }
 
 
-    long startpu =0;
-
     public void onNewRawImage(Bitmap data) {
-//        if (System.currentTimeMillis()-startpu<20){
-//            return;//控制发送图片频率100ms 10HZ
-//        }
-        Log.e("图像频率",1000/(System.currentTimeMillis()-startpu)+" hz ");
-        startpu = System.currentTimeMillis();
-        Time currentTime = connectedNode.getCurrentTime();
-        String frameId = "camera";
-        sensor_msgs.CompressedImage image = imagePublisher.newMessage();
-        image.setFormat("jpeg");
-        image.getHeader().setStamp(currentTime);
-        image.getHeader().setFrameId(frameId);
-        data.compress(Bitmap.CompressFormat.JPEG, 90, stream);
-        image.setData(stream.buffer().copy());
-        stream.buffer().clear();
-        imagePublisher.publish(image);
-
-        if(currentTime.subtract(lastTime).secs == 1)
-        {
-            sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
-            cameraInfo.getHeader().setStamp(currentTime);
-            cameraInfo.getHeader().setFrameId(frameId);
-            cameraInfo.setWidth(640);
-            cameraInfo.setHeight(480);
-
-            if(loadStatus == true) {
-                cameraInfo.setDistortionModel(yamlCamera.getDistortionModel());
-                cameraInfo.setD(yamlCamera.getDistortionCoefficients().getData());
-                cameraInfo.setK(yamlCamera.getCameraMatrix().getData());
-                cameraInfo.setR(yamlCamera.getRectificationMatrix().getData());
-                cameraInfo.setP(yamlCamera.getProjectionMatrix().getData());
-            }
-            cameraInfoPublisher.publish(cameraInfo);
-            lastTime = currentTime;
+        if (shutdown) {
+            return;
         }
+        long arrivalNanos = CameraPipelineStats.now();
+        Time currentTime = sensorClock.toRosTime(arrivalNanos);
+        // Nobody is listening, skip the encoder until a subscriber shows up.
+        if (imageDemand.hasDemand()) {
+            publishImage(data, currentTime, frameId, arrivalNanos);
+        }
+        cameraInfoPublisher.onImage(currentTime, data.getWidth(), data.getHeight(), null);
     }
 
-    public boolean loadCameraInfoYaml(String fileName) {
-        Yaml yaml = new Yaml();
-        File file = new File(Environment.getExternalStorageDirectory() + "/RosCameraInfo",  fileName);
-        Log.e("我的Path: ",file.getAbsolutePath());
-        if(file.exists()) {
-            try{
-                //InputStream reader = CompressedImagePublisher.class.getResourceAsStream("/camera.yaml");
-                InputStream reader = new FileInputStream(file);
-                this.yamlCamera = yaml.loadAs(reader, YamlCamera.class);
-
-                if(yamlCamera.getCameraName() == null || yamlCamera.getDistortionModel() == null) {
-                    Log.i(TAG, "Fail to load camera.yaml.");
-                    return false;
-                }else {
-                    Log.i(TAG, "Succeed to load camera.yaml.");
-                    return true;
-                }
-            } catch (Exception e){
-                e.printStackTrace();
-                Log.e(TAG, "Fail to load yaml file!");
-                return false;
-            }
-        } else {
-            Log.e(TAG, "The camera.yaml isn't exist!");
-            return false;
+    /**
+     * Publishes an NV21 frame, e.g. one packed from a Camera2 image by
+     * {@link Nv21Packer}. Compresses straight from the YUV data, without any
+     * colour conversion or intermediate {@link Bitmap}. The image is stamped
+     * with its exposure time, or its arrival time if that is unknown.
+     *
+     * @param sensorNanos start of exposure on the {@link CameraPipelineStats#now()}
+     *     clock, or 0 if unknown
+     * @param arrivalNanos time the camera delivered the frame
+     */
+    public void onNewRawImage(byte[] data, int width, int height, long sensorNanos, long arrivalNanos) {
+        Preconditions.checkNotNull(data);
+        if (shutdown) {
+            return;
         }
-    }
 
-    public boolean saveCameraInfoYaml(sensor_msgs.CameraInfo cameraInfo, String fileName) {
-        try{
-            if(Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-                File file = makeDirAndFile(Environment.getExternalStorageDirectory() + "/RosCameraInfo", fileName);
-                if (file != null) {
-                    YamlCamera yamlCameraInfo = new YamlCamera();
-                    yamlCameraInfo.setImageHeight(cameraInfo.getHeight());
-                    yamlCameraInfo.setImageWidth(cameraInfo.getWidth());
-                    yamlCameraInfo.setCameraName(cameraInfo.getHeader().getFrameId());
-                    yamlCameraInfo.setDistortionModel(cameraInfo.getDistortionModel());
-
-                    yamlCameraInfo.getCameraMatrix().setData(cameraInfo.getK());
-                    yamlCameraInfo.getDistortionCoefficients().setData(cameraInfo.getD());
-                    yamlCameraInfo.getRectificationMatrix().setData(cameraInfo.getR());
-                    yamlCameraInfo.getProjectionMatrix().setData(cameraInfo.getP());
-
-                    FileOutputStream writer = new FileOutputStream(file);
-                    writer.write(yamlCameraInfo.toString().getBytes());
-                    writer.close();
-                    return true;
-                } else {
-                    Log.e(TAG, "Can't Create camera.yaml!");
-                    return false;
-                }
-            }else {
-                Log.e(TAG, "Can't read external storage!");
-                return false;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.e(TAG, "Can't save camera.yaml!");
-            return false;
+        Time currentTime = sensorClock.toRosTime(sensorNanos > 0 ? sensorNanos : arrivalNanos);
+        if (imageDemand.hasDemand()) {
+            byte[] cropped = frameCropper.apply(data, width, height);
+            imageStream.publish(cropped, frameCropper.getOutputWidth(), frameCropper.getOutputHeight(),
+                    currentTime, frameId, sensorNanos, arrivalNanos);
         }
+        pyramidPublisher.publish(data, width, height, currentTime, sensorNanos, arrivalNanos);
+        cameraInfoPublisher.onImage(currentTime, width, height, frameCropper.getAppliedRegion());
+    }
+
+    /**
+     * @return {@code true} if the image topic or a reduced resolution level has
+     * subscribers, so that callers can skip preparing frames nobody would receive
+     */
+    boolean hasDemand() {
+        return imageDemand.hasDemand() || pyramidPublisher.hasDemand();
     }
 
-    //create dir and file
-    private File makeDirAndFile(String filePath, String fileName) {
-        File dir = null;
+    private void publishImage(Bitmap data, Time stamp, String frameId, long arrivalNanos) {
+        ImageEncoder encoder = imageStream.getEncoder();
+        sensor_msgs.CompressedImage image = imagePublisher.newMessage();
+        image.setFormat(encoder.getFormat());
+        image.getHeader().setStamp(stamp);
+        image.getHeader().setFrameId(frameId);
+        CompressedImageBufferPool.PooledBuffer pooledBuffer = bufferPool.acquire();
         try {
-            dir = new File(filePath);
-            if(!dir.exists()) {
-                dir.mkdir();
+            long encodeStart = CameraPipelineStats.now();
+            if (!encoder.encode(data, qualityController.getQuality(), pooledBuffer.getStream())) {
+                pipelineStats.recordDropped();
+                return;
             }
-        }catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            long encodeEnd = CameraPipelineStats.now();
+            int encodedBytes = pooledBuffer.getBuffer().readableBytes();
+            pipelineStats.recordEncoded(encoder.getFormat(), data.getByteCount(), encodedBytes);
+            image.setData(pooledBuffer.getBuffer());
+            imagePublisher.publish(image);
+            long publishNanos = CameraPipelineStats.now();
+            if (encoder.isLossy()) {
+                qualityController.update(encodeEnd - encodeStart, encodedBytes, publishNanos);
+            }
+            pipelineStats.record(0, arrivalNanos, encodeStart, encodeEnd, publishNanos);
+            bufferPool.published(pooledBuffer);
+        } finally {
+            bufferPool.release(pooledBuffer);
         }
+    }
 
-        File file = null;
-        try{
-            file = new File(filePath, fileName);
-            if(!file.exists()) {
-                file.createNewFile();
-            }
-        }catch (Exception e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * @return per-stage latency of the frames published so far
+     */
+    public CameraPipelineStats getPipelineStats() {
+        return pipelineStats;
+    }
+
+    /**
+     * Stops publishing. Frames delivered afterwards are ignored, so none
+     * reaches the encoder pool once it is shut down.
+     */
+    public void shutdown() {
+        shutdown = true;
+        cameraInfoPublisher.shutdown();
+        pyramidPublisher.shutdown();
+        diagnosticsPublisher.shutdown();
+        imageDemand.shutdown();
+        if (ownsEncoderPool && encoderPool != null) {
+            encoderPool.shutdown();
         }
-        return file;
     }
-}
\ No newline at end of file
+}
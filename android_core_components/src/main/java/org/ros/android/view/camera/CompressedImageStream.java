@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.ImageFormat;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.message.Duration;
+import org.ros.message.Time;
+import org.ros.node.topic.Publisher;
+
+import java.util.ArrayDeque;
+
+/**
+ * Compresses NV21 frames and publishes them on a compressed image topic.
+ * Frames are encoded with an {@link ImageEncoder}, JPEG unless set otherwise,
+ * which can be swapped while the stream is running.
+ *
+ * <p>
+ * Without an {@link EncoderPool} every frame is encoded and published on the
+ * calling thread. With a pool, the frame is copied into one of a bounded set
+ * of frame slots (so the caller can reuse its buffer right away), encoded on a
+ * worker thread and published in capture order with its original stamp. Frames
+ * arriving while every slot is in use are dropped.
+ *
+ * <p>
+ * The time each frame spends queued, encoding and publishing is recorded in
+ * {@link CameraPipelineStats}. With a {@link MotionGate}, frames that barely
+ * differ from the last published one are skipped before they are copied or
+ * encoded.
+ */
+class CompressedImageStream {
+    private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
+    private final CompressedImageBufferPool bufferPool;
+    private final JpegQualityController qualityController;
+    private final CameraPipelineStats stats;
+    private final EncoderPool.Stream<EncodedFrame> encoderStream;
+    private final ArrayDeque<byte[]> freeFrames;
+    private volatile MotionGate motionGate;
+    private volatile ImageEncoder encoder = ImageEncoders.JPEG;
+    private volatile Publisher<std_msgs.Duration> latencyPublisher;
+
+    private int allocatedFrames;
+    private long droppedFrames;
+
+    private static final class EncodedFrame {
+        private final sensor_msgs.CompressedImage image;
+        private final CompressedImageBufferPool.PooledBuffer pooledBuffer;
+        private final long sensorNanos;
+        private final long arrivalNanos;
+        private final long encodeStartNanos;
+        private final long encodeEndNanos;
+        private final int encodedBytes;
+        private final boolean lossy;
+
+        private EncodedFrame(sensor_msgs.CompressedImage image, CompressedImageBufferPool.PooledBuffer pooledBuffer,
+                             long sensorNanos, long arrivalNanos, long encodeStartNanos, long encodeEndNanos,
+                             int encodedBytes, boolean lossy) {
+            this.image = image;
+            this.pooledBuffer = pooledBuffer;
+            this.sensorNanos = sensorNanos;
+            this.arrivalNanos = arrivalNanos;
+            this.encodeStartNanos = encodeStartNanos;
+            this.encodeEndNanos = encodeEndNanos;
+            this.encodedBytes = encodedBytes;
+            this.lossy = lossy;
+        }
+    }
+
+    private final EncoderPool.Sink<EncodedFrame> sink = new EncoderPool.Sink<EncodedFrame>() {
+        @Override
+        public void publish(EncodedFrame encoded) {
+            try {
+                imagePublisher.publish(encoded.image);
+                long publishNanos = CameraPipelineStats.now();
+                // Fed here rather than by the workers, so that the controller
+                // sees the frames in order and the intervals it measures are
+                // those of the published stream.
+                if (encoded.lossy) {
+                    qualityController.update(encoded.encodeEndNanos - encoded.encodeStartNanos,
+                            encoded.encodedBytes, publishNanos);
+                }
+                stats.record(encoded.sensorNanos, encoded.arrivalNanos, encoded.encodeStartNanos,
+                        encoded.encodeEndNanos, publishNanos);
+                publishLatency(encoded, publishNanos);
+                bufferPool.published(encoded.pooledBuffer);
+            } finally {
+                bufferPool.release(encoded.pooledBuffer);
+            }
+        }
+    };
+
+    /**
+     * @param encoderPool pool to encode on, or {@code null} to encode on the
+     *     calling thread
+     * @param window maximum number of frames in flight on the pool
+     */
+    public CompressedImageStream(Publisher<sensor_msgs.CompressedImage> imagePublisher,
+                                 CompressedImageBufferPool bufferPool,
+                                 JpegQualityController qualityController,
+                                 CameraPipelineStats stats,
+                                 EncoderPool encoderPool, int window) {
+        this.imagePublisher = imagePublisher;
+        this.bufferPool = bufferPool;
+        this.qualityController = qualityController;
+        this.stats = stats;
+        this.freeFrames = new ArrayDeque<>();
+        if (encoderPool != null) {
+            encoderStream = encoderPool.newStream(window, sink);
+            qualityController.setEncoderThreads(encoderPool.getThreads());
+        } else {
+            encoderStream = null;
+        }
+    }
+
+    /**
+     * @param motionGate gate applied to every frame, or {@code null} to
+     *     publish all frames
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        this.motionGate = motionGate;
+    }
+
+    /**
+     * @param latencyPublisher topic on which the time from exposure (or
+     *     arrival, if the exposure time is unknown) to publication of every
+     *     frame is published, or {@code null}
+     */
+    public void setLatencyPublisher(Publisher<std_msgs.Duration> latencyPublisher) {
+        this.latencyPublisher = latencyPublisher;
+    }
+
+    /**
+     * Takes effect from the next frame to be encoded.
+     */
+    public void setEncoder(ImageEncoder encoder) {
+        this.encoder = Preconditions.checkNotNull(encoder);
+    }
+
+    public ImageEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * @param sensorNanos start of exposure on the {@link CameraPipelineStats#now()}
+     *     clock, or 0 if unknown
+     * @param arrivalNanos time the camera delivered the frame
+     */
+    public void publish(byte[] data, final int width, final int height, final Time stamp, final String frameId,
+                        final long sensorNanos, final long arrivalNanos) {
+        MotionGate gate = motionGate;
+        if (gate != null && !gate.pass(data, width, height, arrivalNanos)) {
+            stats.recordSkipped();
+            return;
+        }
+        if (encoderStream == null) {
+            EncodedFrame encoded = encode(data, width, height, stamp, frameId, sensorNanos, arrivalNanos);
+            if (gate != null) {
+                gate.commit();
+            }
+            sink.publish(encoded);
+            return;
+        }
+        final byte[] frame = acquireFrame(width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8);
+        if (frame == null) {
+            synchronized (freeFrames) {
+                droppedFrames++;
+            }
+            stats.recordDropped();
+            return;
+        }
+        System.arraycopy(data, 0, frame, 0, frame.length);
+        boolean submitted = encoderStream.submit(new EncoderPool.Encoder<EncodedFrame>() {
+            @Override
+            public EncodedFrame encode() {
+                try {
+                    return CompressedImageStream.this.encode(frame, width, height, stamp, frameId,
+                            sensorNanos, arrivalNanos);
+                } finally {
+                    releaseFrame(frame);
+                }
+            }
+        });
+        if (!submitted) {
+            releaseFrame(frame);
+            stats.recordDropped();
+        } else if (gate != null) {
+            gate.commit();
+        }
+    }
+
+    /**
+     * @return the number of frames dropped because every encoder slot was busy
+     */
+    public long getDroppedFrames() {
+        synchronized (freeFrames) {
+            return droppedFrames + (encoderStream != null ? encoderStream.getDropped() : 0);
+        }
+    }
+
+    private EncodedFrame encode(byte[] data, int width, int height, Time stamp, String frameId,
+                                long sensorNanos, long arrivalNanos) {
+        ImageEncoder encoder = this.encoder;
+        sensor_msgs.CompressedImage image = imagePublisher.newMessage();
+        image.setFormat(encoder.getFormat());
+        image.getHeader().setStamp(stamp);
+        image.getHeader().setFrameId(frameId);
+
+        CompressedImageBufferPool.PooledBuffer pooledBuffer = bufferPool.acquire();
+        boolean encoded = false;
+        try {
+            long encodeStart = CameraPipelineStats.now();
+            Preconditions.checkState(encoder.encode(data, width, height, qualityController.getQuality(),
+                    pooledBuffer.getStream()));
+            long encodeEnd = CameraPipelineStats.now();
+            int encodedBytes = pooledBuffer.getBuffer().readableBytes();
+            stats.recordEncoded(encoder.getFormat(), Nv21Downsampler.frameLength(width, height), encodedBytes);
+            image.setData(pooledBuffer.getBuffer());
+            encoded = true;
+            return new EncodedFrame(image, pooledBuffer, sensorNanos, arrivalNanos, encodeStart, encodeEnd,
+                    encodedBytes, encoder.isLossy());
+        } finally {
+            if (!encoded) {
+                bufferPool.release(pooledBuffer);
+            }
+        }
+    }
+
+    private void publishLatency(EncodedFrame encoded, long publishNanos) {
+        Publisher<std_msgs.Duration> publisher = latencyPublisher;
+        if (publisher == null || !publisher.hasSubscribers()) {
+            return;
+        }
+        long startNanos = encoded.sensorNanos > 0 ? encoded.sensorNanos : encoded.arrivalNanos;
+        std_msgs.Duration latency = publisher.newMessage();
+        latency.setData(Duration.fromNano(publishNanos - startNanos));
+        publisher.publish(latency);
+    }
+
+    private byte[] acquireFrame(int length) {
+        synchronized (freeFrames) {
+            byte[] frame = freeFrames.pollFirst();
+            while (frame != null && frame.length != length) {
+                // The preview size changed, forget slots of the old size.
+                allocatedFrames--;
+                frame = freeFrames.pollFirst();
+            }
+            if (frame == null && allocatedFrames < encoderStream.getWindow()) {
+                frame = new byte[length];
+                allocatedFrames++;
+            }
+            return frame;
+        }
+    }
+
+    private void releaseFrame(byte[] frame) {
+        synchronized (freeFrames) {
+            freeFrames.addLast(frame);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.util.Log;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.node.ConnectedNode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of worker threads that encode consecutive frames concurrently.
+ *
+ * <p>
+ * Frames are submitted to a {@link Stream}. Each stream bounds the number of
+ * frames it has in flight and hands encoded frames to its {@link Sink} in
+ * submission order, whatever order the workers finish in. When the window is
+ * full, or the pool has been shut down, newly submitted frames are dropped. Several streams, e.g. one per
+ * camera, can share one pool without delaying each other's ordering.
+ */
+class EncoderPool {
+    private static final String TAG = "EncoderPool";
+
+    /**
+     * Encodes one frame on a worker thread. Returning {@code null} skips the
+     * frame.
+     */
+    interface Encoder<T> {
+        T encode();
+    }
+
+    /**
+     * Receives encoded frames in submission order, one at a time.
+     */
+    interface Sink<T> {
+        void publish(T encoded);
+    }
+
+    private final ExecutorService executorService;
+    private final int threads;
+
+    public EncoderPool(int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.threads = threads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImageEncoder-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates a pool with {@code ~encoder_threads} workers.
+     *
+     * @return the pool, or {@code null} if frames should be encoded on the
+     *     thread that delivers them (one thread or fewer configured)
+     */
+    public static EncoderPool fromParameters(ConnectedNode connectedNode) {
+        return fromParameters(connectedNode, 1);
+    }
+
+    /**
+     * @param defaultThreads number of workers if {@code ~encoder_threads} is
+     *     not set
+     */
+    public static EncoderPool fromParameters(ConnectedNode connectedNode, int defaultThreads) {
+        int threads = connectedNode.getParameterTree().getInteger("~encoder_threads", defaultThreads);
+        return threads > 1 ? new EncoderPool(threads) : null;
+    }
+
+    /**
+     * @return the in-flight window configured by {@code ~encoder_window},
+     *     twice the number of workers by default
+     */
+    public static int windowFromParameters(ConnectedNode connectedNode, EncoderPool encoderPool) {
+        int threads = encoderPool != null ? encoderPool.getThreads() : 1;
+        return Math.max(1, connectedNode.getParameterTree().getInteger("~encoder_window", 2 * threads));
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param window maximum number of frames of this stream being encoded or
+     *     waiting for publication at the same time
+     */
+    public <T> Stream<T> newStream(int window, Sink<T> sink) {
+        return new Stream<>(window, sink);
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * An ordered sequence of frames sharing the pool.
+     */
+    final class Stream<T> {
+        private final int window;
+        private final Sink<T> sink;
+        private final Object[] results;
+        private final boolean[] completed;
+
+        private long nextSequence;
+        private long nextToPublish;
+        private int inFlight;
+        private boolean draining;
+        private long dropped;
+
+        private Stream(int window, Sink<T> sink) {
+            Preconditions.checkArgument(window > 0);
+            this.window = window;
+            this.sink = sink;
+            results = new Object[window];
+            completed = new boolean[window];
+        }
+
+        /**
+         * @return {@code false} if the frame was dropped because the window is
+         *     full or the pool was shut down. The encoder is not called then.
+         */
+        public boolean submit(final Encoder<T> encoder) {
+            final long sequence;
+            synchronized (this) {
+                if (inFlight >= window) {
+                    dropped++;
+                    return false;
+                }
+                sequence = nextSequence++;
+                inFlight++;
+            }
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        T encoded = null;
+                        try {
+                            encoded = encoder.encode();
+                        } catch (RuntimeException e) {
+                            Log.e(TAG, "Failed to encode frame.", e);
+                        }
+                        complete(sequence, encoded);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shut down while a frame was still being delivered. Completing
+                // the sequence empty releases its slot, so the frames submitted
+                // after it are not held back waiting for it.
+                synchronized (this) {
+                    dropped++;
+                }
+                complete(sequence, null);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of frames dropped because the window was full or
+         *     the pool was shut down
+         */
+        public synchronized long getDropped() {
+            return dropped;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        private void complete(long sequence, T encoded) {
+            synchronized (this) {
+                int slot = (int) (sequence % window);
+                results[slot] = encoded;
+                completed[slot] = true;
+                // Whoever is draining already will publish this frame when its turn
+                // comes.
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                T next;
+                synchronized (this) {
+                    int slot = (int) (nextToPublish % window);
+                    if (!completed[slot]) {
+                        draining = false;
+                        return;
+                    }
+                    @SuppressWarnings("unchecked")
+                    T result = (T) results[slot];
+                    next = result;
+                    results[slot] = null;
+                    completed[slot] = false;
+                    nextToPublish++;
+                    inFlight--;
+                }
+                if (next != null) {
+                    try {
+                        sink.publish(next);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to publish frame.", e);
+                    }
+                }
+            }
+        }
+    }
+}
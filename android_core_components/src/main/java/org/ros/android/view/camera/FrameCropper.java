@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterListener;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * Crops NV21 frames to a region of interest and bins them by an integer
+ * factor before they are compressed.
+ *
+ * <p>
+ * The requested region is clipped to the frame and aligned to even
+ * coordinates, as NV21 chroma covers 2x2 pixels. Binning averages
+ * {@code binning x binning} blocks. The result is written into a buffer owned
+ * by the cropper and reused for every frame, so it is only valid until the
+ * next call to {@link #apply}. Not thread-safe apart from
+ * {@link #setRegion}: use it from the thread that delivers the frames.
+ */
+class FrameCropper {
+    private static final String[] PARAMETERS = {
+            "~roi_x_offset", "~roi_y_offset", "~roi_width", "~roi_height", "~binning"};
+
+    /**
+     * A region of interest in full resolution pixel coordinates and a
+     * binning factor. A width or height of 0 extends the region to the edge
+     * of the frame.
+     */
+    static final class Region {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final int binning;
+
+        Region(int x, int y, int width, int height, int binning) {
+            Preconditions.checkArgument(x >= 0 && y >= 0 && width >= 0 && height >= 0 && binning >= 1);
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.binning = binning;
+        }
+
+        boolean isFullFrame() {
+            return x == 0 && y == 0 && width == 0 && height == 0 && binning == 1;
+        }
+
+        /**
+         * @return the region as applied to a frame of the given size, with
+         *     width and height in full resolution pixels. It always holds at
+         *     least one chroma sample after binning: a region past the edge
+         *     of the frame is moved back inside, and the binning is reduced
+         *     for frames smaller than one binned chroma sample.
+         */
+        Region clip(int frameWidth, int frameHeight) {
+            int binning = Math.max(1, Math.min(this.binning, Math.min(frameWidth, frameHeight) / 2));
+            // Whole chroma samples after binning.
+            int step = 2 * binning;
+            int left = Math.max(0, Math.min(x, frameWidth - step)) & ~1;
+            int top = Math.max(0, Math.min(y, frameHeight - step)) & ~1;
+            int right = width > 0 ? Math.min(frameWidth, left + width) : frameWidth;
+            int bottom = height > 0 ? Math.min(frameHeight, top + height) : frameHeight;
+            int clippedWidth = Math.max(step, (right - left) / step * step);
+            int clippedHeight = Math.max(step, (bottom - top) / step * step);
+            clippedWidth = Math.min(clippedWidth, (frameWidth - left) / step * step);
+            clippedHeight = Math.min(clippedHeight, (frameHeight - top) / step * step);
+            return new Region(left, top, clippedWidth, clippedHeight, binning);
+        }
+    }
+
+    private volatile Region region;
+    private Region appliedTo;
+    private Region clipped;
+    private int frameWidth;
+    private int frameHeight;
+    private byte[] output;
+
+    FrameCropper(Region region) {
+        this.region = region;
+    }
+
+    /**
+     * Creates a cropper configured by {@code ~roi_x_offset},
+     * {@code ~roi_y_offset}, {@code ~roi_width}, {@code ~roi_height} and
+     * {@code ~binning}, which follows later changes of these parameters.
+     */
+    public static FrameCropper fromParameters(ConnectedNode connectedNode) {
+        final ParameterTree parameters = connectedNode.getParameterTree();
+        final FrameCropper cropper = new FrameCropper(readRegion(parameters));
+        ParameterListener listener = new ParameterListener() {
+            @Override
+            public void onNewValue(Object value) {
+                cropper.setRegion(readRegion(parameters));
+            }
+        };
+        for (String parameter : PARAMETERS) {
+            parameters.addParameterListener(parameter, listener);
+        }
+        return cropper;
+    }
+
+    private static Region readRegion(ParameterTree parameters) {
+        return new Region(Math.max(0, parameters.getInteger("~roi_x_offset", 0)),
+                Math.max(0, parameters.getInteger("~roi_y_offset", 0)),
+                Math.max(0, parameters.getInteger("~roi_width", 0)),
+                Math.max(0, parameters.getInteger("~roi_height", 0)),
+                Math.max(1, parameters.getInteger("~binning", 1)));
+    }
+
+    public void setRegion(Region region) {
+        this.region = Preconditions.checkNotNull(region);
+    }
+
+    /**
+     * @return the region applied by the last call to {@link #apply}, which
+     *     stays the same object as long as neither the configuration nor the
+     *     frame size change
+     */
+    public Region getAppliedRegion() {
+        return clipped;
+    }
+
+    public int getOutputWidth() {
+        return clipped.width / clipped.binning;
+    }
+
+    public int getOutputHeight() {
+        return clipped.height / clipped.binning;
+    }
+
+    /**
+     * @return {@code data} itself for the full frame, otherwise the cropped
+     *     and binned frame
+     */
+    public byte[] apply(byte[] data, int width, int height) {
+        Region requested = region;
+        if (requested != appliedTo || frameWidth != width || frameHeight != height) {
+            clipped = requested.isFullFrame() ? new Region(0, 0, width, height, 1) : requested.clip(width, height);
+            appliedTo = requested;
+            frameWidth = width;
+            frameHeight = height;
+        }
+        if (requested.isFullFrame()) {
+            return data;
+        }
+        int outputWidth = getOutputWidth();
+        int outputHeight = getOutputHeight();
+        int length = Nv21Downsampler.frameLength(outputWidth, outputHeight);
+        if (output == null || output.length != length) {
+            output = new byte[length];
+        }
+        if (clipped.binning == 1) {
+            crop(data, width, height, clipped, output);
+        } else {
+            cropAndBin(data, width, height, clipped, output);
+        }
+        return output;
+    }
+
+    private static void crop(byte[] data, int width, int height, Region region, byte[] output) {
+        for (int row = 0; row < region.height; row++) {
+            System.arraycopy(data, (region.y + row) * width + region.x, output, row * region.width, region.width);
+        }
+        int chroma = width * height;
+        int outputChroma = region.width * region.height;
+        for (int row = 0; row < region.height / 2; row++) {
+            System.arraycopy(data, chroma + (region.y / 2 + row) * width + region.x, output,
+                    outputChroma + row * region.width, region.width);
+        }
+    }
+
+    private static void cropAndBin(byte[] data, int width, int height, Region region, byte[] output) {
+        int binning = region.binning;
+        int area = binning * binning;
+        int outputWidth = region.width / binning;
+        int outputHeight = region.height / binning;
+        for (int y = 0; y < outputHeight; y++) {
+            int top = (region.y + y * binning) * width + region.x;
+            for (int x = 0; x < outputWidth; x++) {
+                int sum = 0;
+                for (int dy = 0; dy < binning; dy++) {
+                    int in = top + dy * width + x * binning;
+                    for (int dx = 0; dx < binning; dx++) {
+                        sum += data[in + dx] & 0xff;
+                    }
+                }
+                output[y * outputWidth + x] = (byte) ((sum + area / 2) / area);
+            }
+        }
+        // Chroma pairs cover 2x2 pixels: bin blocks of binning x binning pairs.
+        int chroma = width * height;
+        int outputChroma = outputWidth * outputHeight;
+        for (int y = 0; y < outputHeight / 2; y++) {
+            int top = chroma + (region.y / 2 + y * binning) * width + region.x;
+            for (int x = 0; x < outputWidth; x += 2) {
+                int v = 0;
+                int u = 0;
+                for (int dy = 0; dy < binning; dy++) {
+                    int in = top + dy * width + x * binning;
+                    for (int dx = 0; dx < 2 * binning; dx += 2) {
+                        v += data[in + dx] & 0xff;
+                        u += data[in + dx + 1] & 0xff;
+                    }
+                }
+                int out = outputChroma + y * outputWidth + x;
+                output[out] = (byte) ((v + area / 2) / area);
+                output[out + 1] = (byte) ((u + area / 2) / area);
+            }
+        }
+    }
+}
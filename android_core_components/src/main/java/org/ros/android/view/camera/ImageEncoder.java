@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.Bitmap;
+
+import java.io.OutputStream;
+
+/**
+ * Encodes camera frames into the payload of a {@link sensor_msgs.CompressedImage}.
+ *
+ * <p>
+ * One encoder instance is shared by every thread of an {@link EncoderPool},
+ * so implementations must be thread-safe. See {@link ImageEncoders} for the
+ * available formats.
+ */
+public interface ImageEncoder {
+
+    /**
+     * @return the value of {@link sensor_msgs.CompressedImage#getFormat()}
+     *     for frames produced by this encoder
+     */
+    String getFormat();
+
+    /**
+     * @return {@code false} if the quality argument is ignored, so that it
+     *     should not be traded for encode time or bandwidth
+     */
+    boolean isLossy();
+
+    /**
+     * Encodes a tightly packed NV21 frame.
+     *
+     * @param quality 1 to 100, ignored by lossless encoders
+     * @return {@code true} on success
+     */
+    boolean encode(byte[] nv21, int width, int height, int quality, OutputStream out);
+
+    /**
+     * @param quality 1 to 100, ignored by lossless encoders
+     * @return {@code true} on success, {@code false} on failure or if the
+     *     format cannot represent bitmaps
+     */
+    boolean encode(Bitmap bitmap, int quality, OutputStream out);
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterListener;
+import org.ros.node.parameter.ParameterTree;
+
+import java.util.Locale;
+
+/**
+ * The available {@link ImageEncoder}s, by format name: {@code "jpeg"},
+ * {@code "webp"}, {@code "png"} and {@code "nv21"} (uncompressed, also
+ * accepted as {@code "raw"}).
+ */
+public final class ImageEncoders {
+    private static final String TAG = "ImageEncoders";
+
+    public static final String DEFAULT_FORMAT = "jpeg";
+
+    public static final ImageEncoder JPEG = new JpegImageEncoder();
+    public static final ImageEncoder WEBP = new BitmapImageEncoder(Bitmap.CompressFormat.WEBP, "webp", true);
+    public static final ImageEncoder PNG = new BitmapImageEncoder(Bitmap.CompressFormat.PNG, "png", false);
+    public static final ImageEncoder RAW = new RawImageEncoder();
+
+    private ImageEncoders() {
+    }
+
+    /**
+     * @return the encoder for {@code format}, case-insensitive, or
+     *     {@code null} if there is none
+     */
+    public static ImageEncoder forFormat(String format) {
+        if (format == null) {
+            return null;
+        }
+        switch (format.trim().toLowerCase(Locale.US)) {
+            case "jpeg":
+            case "jpg":
+                return JPEG;
+            case "webp":
+                return WEBP;
+            case "png":
+                return PNG;
+            case "nv21":
+            case "raw":
+                return RAW;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sets the encoder of {@code stream} from the string parameter
+     * {@code parameter} and follows later changes of it. Unknown formats are
+     * logged and ignored.
+     *
+     * @param defaultFormat format used while the parameter is unset
+     */
+    static void bind(ConnectedNode connectedNode, final String parameter, String defaultFormat,
+                     final CompressedImageStream stream) {
+        ParameterTree parameters = connectedNode.getParameterTree();
+        setInitial(stream, parameter, parameters.getString(parameter, defaultFormat), defaultFormat);
+        parameters.addParameterListener(parameter, new ParameterListener() {
+            @Override
+            public void onNewValue(Object value) {
+                update(stream, parameter, value);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #bind(ConnectedNode, String, String, CompressedImageStream)}
+     * for a parameter that defaults to another one: while {@code parameter}
+     * is unset, the encoder follows {@code fallbackParameter} and its later
+     * changes.
+     *
+     * @param defaultFormat format used while both parameters are unset
+     */
+    static void bind(ConnectedNode connectedNode, final String parameter, final String fallbackParameter,
+                     String defaultFormat, final CompressedImageStream stream) {
+        final ParameterTree parameters = connectedNode.getParameterTree();
+        String format = parameters.has(parameter) ? parameters.getString(parameter, defaultFormat)
+                : parameters.getString(fallbackParameter, defaultFormat);
+        setInitial(stream, parameter, format, defaultFormat);
+        parameters.addParameterListener(parameter, new ParameterListener() {
+            @Override
+            public void onNewValue(Object value) {
+                update(stream, parameter, value);
+            }
+        });
+        parameters.addParameterListener(fallbackParameter, new ParameterListener() {
+            @Override
+            public void onNewValue(Object value) {
+                if (!parameters.has(parameter)) {
+                    update(stream, fallbackParameter, value);
+                }
+            }
+        });
+    }
+
+    private static void setInitial(CompressedImageStream stream, String parameter, String format,
+                                   String defaultFormat) {
+        ImageEncoder encoder = forFormat(format);
+        if (encoder == null) {
+            Log.w(TAG, "Unknown " + parameter + ", using " + defaultFormat + ".");
+            encoder = forFormat(defaultFormat);
+        }
+        stream.setEncoder(encoder);
+    }
+
+    private static void update(CompressedImageStream stream, String parameter, Object value) {
+        ImageEncoder encoder = forFormat(String.valueOf(value));
+        if (encoder == null) {
+            Log.w(TAG, "Unknown " + parameter + " " + value + ", keeping " + stream.getEncoder().getFormat() + ".");
+            return;
+        }
+        stream.setEncoder(encoder);
+    }
+}
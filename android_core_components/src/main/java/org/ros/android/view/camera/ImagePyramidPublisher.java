@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.DiagnosticsPublisher;
+import org.ros.android.SubscriberDemand;
+import org.ros.message.Time;
+import org.ros.namespace.NameResolver;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+/**
+ * Publishes reduced resolution copies of each frame next to the full
+ * resolution stream: {@code image_half/compressed}, {@code image_quarter/compressed}
+ * and {@code image_eighth/compressed}.
+ *
+ * <p>
+ * Each level is computed from the one above it with
+ * {@link Nv21Downsampler#halve}, into a buffer reused across frames. A level
+ * is only computed if it or a smaller level has subscribers, and only encoded
+ * if it has subscribers itself. The number of levels below full resolution is
+ * set by {@code ~pyramid_levels} (2 by default, at most 3). The encoder of
+ * each level is chosen by {@code ~image_half_format},
+ * {@code ~image_quarter_format} and {@code ~image_eighth_format}. A level
+ * whose parameter is unset uses {@code ~image_format}, and follows its
+ * changes.
+ */
+class ImagePyramidPublisher {
+    private static final String[] TOPICS = {
+            "image_half/compressed", "image_quarter/compressed", "image_eighth/compressed"};
+    private static final String[] FORMAT_PARAMETERS = {
+            "~image_half_format", "~image_quarter_format", "~image_eighth_format"};
+
+    private final String frameId;
+    private final Level[] levels;
+    private final DiagnosticsPublisher diagnosticsPublisher;
+
+    private static final class Level {
+        private final SubscriberDemand demand;
+        private final CompressedImageStream stream;
+        private byte[] frame;
+        private int width;
+        private int height;
+
+        private Level(SubscriberDemand demand, CompressedImageStream stream) {
+            this.demand = demand;
+            this.stream = stream;
+        }
+    }
+
+    /**
+     * @param resolver namespace of the image topics
+     * @param encoderPool pool to encode on, or {@code null} to encode on the
+     *     thread delivering the frames. It is not shut down with this
+     *     publisher.
+     * @param qualityController quality loop shared with the full resolution
+     *     stream, so that all levels stay within one bandwidth budget
+     */
+    public ImagePyramidPublisher(ConnectedNode connectedNode, NameResolver resolver, String frameId,
+                                 EncoderPool encoderPool, JpegQualityController qualityController) {
+        this.frameId = frameId;
+        int levelCount = Math.max(0, Math.min(TOPICS.length,
+                connectedNode.getParameterTree().getInteger("~pyramid_levels", 2)));
+        levels = new Level[levelCount];
+        diagnosticsPublisher = new DiagnosticsPublisher(connectedNode);
+        int window = EncoderPool.windowFromParameters(connectedNode, encoderPool);
+        for (int i = 0; i < levelCount; i++) {
+            Publisher<sensor_msgs.CompressedImage> publisher =
+                    connectedNode.newPublisher(resolver.resolve(TOPICS[i]), sensor_msgs.CompressedImage._TYPE);
+            SubscriberDemand demand = new SubscriberDemand(connectedNode);
+            demand.watch(publisher);
+            CameraPipelineStats stats = new CameraPipelineStats(publisher.getTopicName().toString());
+            diagnosticsPublisher.addSource(stats);
+            CompressedImageStream stream = new CompressedImageStream(publisher, new CompressedImageBufferPool(),
+                    qualityController, stats, encoderPool, window);
+            ImageEncoders.bind(connectedNode, FORMAT_PARAMETERS[i], "~image_format", ImageEncoders.DEFAULT_FORMAT,
+                    stream);
+            levels[i] = new Level(demand, stream);
+        }
+    }
+
+    /**
+     * @return {@code true} if any level has subscribers, so that callers can
+     *     skip preparing frames nobody would receive
+     */
+    public boolean hasDemand() {
+        for (Level level : levels) {
+            if (level.demand.hasDemand()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publishes the reduced levels of a full resolution NV21 frame.
+     *
+     * @param sensorNanos start of exposure on the {@link CameraPipelineStats#now()}
+     *     clock, or 0 if unknown
+     * @param arrivalNanos time the camera delivered the frame
+     */
+    public void publish(byte[] data, int width, int height, Time stamp, long sensorNanos, long arrivalNanos) {
+        Preconditions.checkNotNull(data);
+        int deepest = -1;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i].demand.hasDemand()) {
+                deepest = i;
+            }
+        }
+        byte[] source = data;
+        int sourceWidth = width;
+        int sourceHeight = height;
+        for (int i = 0; i <= deepest; i++) {
+            if (!Nv21Downsampler.canHalve(sourceWidth, sourceHeight)) {
+                return;
+            }
+            Level level = levels[i];
+            level.width = sourceWidth / 2;
+            level.height = sourceHeight / 2;
+            int length = Nv21Downsampler.frameLength(level.width, level.height);
+            if (level.frame == null || level.frame.length != length) {
+                level.frame = new byte[length];
+            }
+            Nv21Downsampler.halve(source, sourceWidth, sourceHeight, level.frame);
+            if (level.demand.hasDemand()) {
+                level.stream.publish(level.frame, level.width, level.height, stamp, frameId, sensorNanos,
+                        arrivalNanos);
+            }
+            source = level.frame;
+            sourceWidth = level.width;
+            sourceHeight = level.height;
+        }
+    }
+
+    public void shutdown() {
+        diagnosticsPublisher.shutdown();
+        for (Level level : levels) {
+            level.demand.shutdown();
+        }
+    }
+}
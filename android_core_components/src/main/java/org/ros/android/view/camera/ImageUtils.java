@@ -19,10 +19,18 @@ public class ImageUtils {
     }
 
     public static Mat getMatFromImage(final Image image) {
+        return getMatFromImage(image, new Mat());
+    }
+
+    /**
+     * Converts into {@code originMat}, which is only reallocated when the
+     * image size changes, so that a caller converting every frame can keep
+     * reusing the same Mat.
+     */
+    public static Mat getMatFromImage(final Image image, Mat originMat) {
         int w = image.getWidth();
         int h = image.getHeight();
 
-        Mat originMat = new Mat();
         Image.Plane[] planes = image.getPlanes();
         assert (planes.length == 3);
         assert (image.getFormat() == ImageFormat.YUV_420_888);
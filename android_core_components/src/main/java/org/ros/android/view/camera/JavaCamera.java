@@ -3,7 +3,7 @@ package org.ros.android.view.camera;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -12,6 +12,7 @@ import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
+import android.media.Image;
 import android.media.ImageReader;
 import android.os.Build;
 import android.os.Handler;
@@ -24,13 +25,19 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.core.content.ContextCompat;
 
+import com.google.common.base.Preconditions;
+
+import org.ros.android.SensorClock;
 import org.ros.namespace.GraphName;
+import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
 import org.ros.node.NodeMain;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.hardware.camera2.CameraMetadata.CONTROL_AE_MODE_OFF;
 import static android.hardware.camera2.CameraMetadata.CONTROL_AE_MODE_ON;
@@ -42,25 +49,134 @@ import static android.hardware.camera2.CameraMetadata.CONTROL_CAPTURE_INTENT_VID
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class JavaCamera implements NodeMain {
     private static final String TAG = JavaCamera.class.getSimpleName();
+    public static final int DEFAULT_IMAGE_WIDTH = 640;
+    public static final int DEFAULT_IMAGE_HEIGHT = 480;
+    /**
+     * One image being processed plus two the camera can fill meanwhile.
+     */
+    public static final int DEFAULT_IMAGE_READER_DEPTH = 3;
+    public static final String DEFAULT_CAMERA_ID = "0";
+    public static final String DEFAULT_NAMESPACE = "android";
+
+    /**
+     * Receives every frame that is delivered from the image readers.
+     */
+    public interface ImageListener {
+        /**
+         * Called on the camera thread after the frame was published. The
+         * image is closed when this returns and must not be closed here.
+         *
+         * @param cameraId the camera the frame comes from
+         */
+        void onImage(String cameraId, Image image);
+    }
+
     private HandlerThread threadHandler;
     private Handler cameraHandler;
-    private String cameraID = "0";
-    private CameraDevice camera;
-    private CaptureRequest.Builder captureBuilder;
-    private List<ImageReader> imageReaders = new ArrayList<>();
+    // Added to from the ROS thread (onStart) and the UI thread (open) and
+    // iterated by both.
+    private final List<CameraStream> cameras = new CopyOnWriteArrayList<>();
     private CameraManager cameraManager;
     private CameraDevice.StateCallback openCallback;
-    public static CompressedImagePublisher2 compressedImagePublisher;
+    private int imageWidth = DEFAULT_IMAGE_WIDTH;
+    private int imageHeight = DEFAULT_IMAGE_HEIGHT;
+    private int imageFormat = ImageFormat.YUV_420_888;
+    private int imageReaderDepth = DEFAULT_IMAGE_READER_DEPTH;
+    private volatile boolean opened;
+    private volatile ImageListener imageListener;
+    private EncoderPool encoderPool;
+    private JpegQualityController qualityController;
+    private SensorClock sensorClock;
+
+    /**
+     * Adds a camera to stream from. Must be called before {@link #open}.
+     * Without any call the camera {@link #DEFAULT_CAMERA_ID} is streamed on
+     * {@link #DEFAULT_NAMESPACE}.
+     *
+     * @param cameraId a physical or logical camera id from {@link CameraManager#getCameraIdList()}
+     * @param namespace namespace of the camera's image, camera_info and
+     *     set_camera_info topics, relative to the node
+     * @param frameId frame id stamped on the camera's images
+     */
+    public synchronized void addCamera(String cameraId, String namespace, String frameId) {
+        Preconditions.checkState(!opened, "The cameras are already open.");
+        for (CameraStream camera : cameras) {
+            Preconditions.checkArgument(!camera.cameraId.equals(cameraId), "Camera " + cameraId + " was already added.");
+            Preconditions.checkArgument(!camera.namespace.equals(namespace), "Namespace " + namespace + " is already used.");
+        }
+        cameras.add(new CameraStream(cameraId, namespace, frameId));
+    }
+
+    /**
+     * Configures the image readers that frames are published from. Applies
+     * to every camera. Must be called before {@link #open}.
+     *
+     * @param format {@link ImageFormat#YUV_420_888} to publish images
+     * @param depth number of images the reader holds. Frames are always
+     *     drained latest first and superseded ones are dropped, so a depth
+     *     of at least 2 lets the camera keep capturing while a frame is
+     *     processed.
+     */
+    public void setImageReaderConfiguration(int width, int height, int format, int depth) {
+        Preconditions.checkState(!opened, "The image readers are already open.");
+        Preconditions.checkArgument(width > 0 && height > 0 && depth >= 2);
+        imageWidth = width;
+        imageHeight = height;
+        imageFormat = format;
+        imageReaderDepth = depth;
+    }
+
+    public void setImageListener(ImageListener imageListener) {
+        this.imageListener = imageListener;
+    }
+
+    /**
+     * @return the number of frames of all cameras handed to the publishers
+     */
+    public long getFramesDelivered() {
+        long frames = 0;
+        for (CameraStream camera : cameras) {
+            frames += camera.framesDelivered.get();
+        }
+        return frames;
+    }
+
+    /**
+     * @return the number of frames of all cameras superseded by a newer one
+     *     before they could be processed
+     */
+    public long getFramesDropped() {
+        long frames = 0;
+        for (CameraStream camera : cameras) {
+            frames += camera.framesDropped.get();
+        }
+        return frames;
+    }
+
+    /**
+     * @return per-stage latency of the camera's compressed image stream, or
+     *     {@code null} before the node has started
+     */
+    public CameraPipelineStats getPipelineStats(String cameraId) {
+        CompressedImagePublisher2 publisher = getCamera(cameraId).compressedImagePublisher;
+        return publisher != null ? publisher.getPipelineStats() : null;
+    }
 
     /**
      * 需要在open前调用，否则添加的reader无效，需要重启
+     * Adds an extra output of the first camera.
      *
      * @param imageReader
      */
     public void addImageReader(ImageReader imageReader) {
-        imageReaders.add(imageReader);
+        addDefaultCamera();
+        cameras.get(0).imageReaders.add(imageReader);
     }
 
+    /**
+     * Opens every added camera. {@code callback} is notified for each of
+     * them.
+     */
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     public boolean open(Context context, CameraDevice.StateCallback callback) {
         openCallback = callback;
@@ -71,9 +187,12 @@ public class JavaCamera implements NodeMain {
             if (ContextCompat.checkSelfPermission(context, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
                 return false;
             }
+            addDefaultCamera();
+            opened = true;
             initLooper();
-            // start up Camera (not the recording)
-            cameraManager.openCamera(cameraID, cameraDeviceStateCallback, cameraHandler);
+            for (CameraStream camera : cameras) {
+                camera.open();
+            }
         } catch (CameraAccessException e) {
             e.printStackTrace();
             return false;
@@ -82,12 +201,15 @@ public class JavaCamera implements NodeMain {
     }
 
     public void close() {
-        camera.close();
+        for (CameraStream camera : cameras) {
+            camera.close();
+        }
         threadHandler.quitSafely();
     }
 
     /**
-     * Starting separate thread to handle camera input
+     * Starting separate thread to handle camera input. All cameras share it:
+     * it only moves frames into the encoder pool.
      */
     private void initLooper() {
         threadHandler = new HandlerThread("Camera2Thread");
@@ -95,160 +217,309 @@ public class JavaCamera implements NodeMain {
         cameraHandler = new Handler(threadHandler.getLooper());
     }
 
-    private CameraCaptureSession.StateCallback sessionStateCallback = new CameraCaptureSession.StateCallback() {
-        @Override
-        public void onConfigured(CameraCaptureSession session) {
-            try {
-                //if this session is no longer active, either because the session was explicitly closed
-                // , a new session has been created or the camera device has been closed.
-                session.setRepeatingRequest(captureBuilder.build(), null, cameraHandler);
+    private synchronized void addDefaultCamera() {
+        if (cameras.isEmpty()) {
+            addCamera(DEFAULT_CAMERA_ID, DEFAULT_NAMESPACE, "camera");
+        }
+    }
 
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
-            } catch (IllegalStateException e) {
-                //CameraDevice was already closed
-                e.printStackTrace();
-            } catch (Exception e) {
-                e.printStackTrace();
+    private CameraStream getCamera(String cameraId) {
+        for (CameraStream camera : cameras) {
+            if (camera.cameraId.equals(cameraId)) {
+                return camera;
             }
         }
+        throw new IllegalArgumentException("Unknown camera " + cameraId);
+    }
 
-        @Override
-        public void onConfigureFailed(CameraCaptureSession session) {
+    /**
+     * @return the characteristics of the first camera
+     */
+    public CameraCharacteristics getCameraCharacteristics() throws CameraAccessException {
+        return getCameraCharacteristics(cameras.get(0).cameraId);
+    }
 
-        }
+    public CameraCharacteristics getCameraCharacteristics(String cameraId) throws CameraAccessException {
+        return cameraManager.getCameraCharacteristics(cameraId);
+    }
 
-        @Override
-        public void onClosed(@NonNull CameraCaptureSession session) {
-            super.onClosed(session);
 
-        }
-    };
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of("ros_camera_preview_view");
+    }
 
-    private CameraDevice.StateCallback cameraDeviceStateCallback = new CameraDevice.StateCallback() {
-        @Override
-        public void onOpened(CameraDevice cameraDevice) {
-            try {
-                camera = cameraDevice;
 
-                startCameraView(camera);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
-            }
-            if (openCallback != null) {
-                openCallback.onOpened(cameraDevice);
-            }
+    @Override
+    public void onStart(ConnectedNode connectedNode) {
+        addDefaultCamera();
+        // One bounded pool for all cameras, by default one worker per camera.
+        encoderPool = EncoderPool.fromParameters(connectedNode, cameras.size());
+        // One quality loop for all cameras, so that they share
+        // ~target_bandwidth instead of each using all of it.
+        qualityController = JpegQualityController.fromParameters(connectedNode);
+        sensorClock = new SensorClock(connectedNode);
+        for (CameraStream camera : cameras) {
+            camera.startPublishers(connectedNode);
         }
+    }
 
-        @Override
-        public void onDisconnected(CameraDevice camera) {
-            if (openCallback != null) {
-                openCallback.onDisconnected(camera);
-            }
+    @Override
+    public void onShutdown(Node node) {
+        // Stop delivering frames before the pool goes away.
+        for (CameraStream camera : cameras) {
+            camera.shutdownPublishers();
         }
-
-        @Override
-        public void onError(CameraDevice camera, int error) {
-            if (openCallback != null) {
-                openCallback.onError(camera, error);
-            }
+        if (encoderPool != null) {
+            encoderPool.shutdown();
         }
-    };
+    }
 
-    private Range<Integer> max;
+    @Override
+    public void onShutdownComplete(Node node) {
+    }
+
+    @Override
+    public void onError(Node node, Throwable throwable) {
+    }
 
     /**
-     * starts CameraView
+     * One camera device with its image reader and publishers.
      */
-    private void startCameraView(CameraDevice camera) throws CameraAccessException {
-        Range<Integer>[] fpsRanges = getCameraCharacteristics().get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
-        if (fpsRanges != null) {
-            for (Range<Integer> r : fpsRanges) {
-                Log.e("帧率的范围", r.toString());
-            }
-            max = fpsRanges[fpsRanges.length - 1];
+    private final class CameraStream {
+        private final String cameraId;
+        private final String namespace;
+        private final String frameId;
+        private final List<ImageReader> imageReaders = new ArrayList<>();
+        private final Nv21Packer nv21Packer = new Nv21Packer();
+        private final AtomicLong framesDelivered = new AtomicLong();
+        private final AtomicLong framesDropped = new AtomicLong();
+        private CameraDevice camera;
+        private CaptureRequest.Builder captureBuilder;
+        private ImageReader imageReader;
+        private Range<Integer> max;
+        private volatile CompressedImagePublisher2 compressedImagePublisher;
+        private volatile MonoImagePublisher monoImagePublisher;
+        /**
+         * Offset from the camera's timestamp clock to
+         * {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+         */
+        private volatile long timestampShiftNanos;
+
+        private CameraStream(String cameraId, String namespace, String frameId) {
+            this.cameraId = cameraId;
+            this.namespace = namespace;
+            this.frameId = frameId;
         }
 
-
-        try {
-            // to set request for CameraView
-            captureBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+        private void open() throws CameraAccessException {
+            imageReader = ImageReader.newInstance(imageWidth, imageHeight, imageFormat, imageReaderDepth);
+            imageReader.setOnImageAvailableListener(onImageAvailableListener, cameraHandler);
+            imageReaders.add(imageReader);
+            // start up Camera (not the recording)
+            cameraManager.openCamera(cameraId, cameraDeviceStateCallback, cameraHandler);
         }
 
-        captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-        // 不自动对焦
-        captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CONTROL_AF_MODE_OFF);
-        // 自动曝光
-        captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CONTROL_AE_MODE_OFF);
-        if (max != null) {
-            Log.e("设置帧率", max.toString());
-            captureBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, max);
+        private void close() {
+            if (camera != null) {
+                camera.close();
+                camera = null;
+            }
+            if (imageReader != null) {
+                imageReaders.remove(imageReader);
+                imageReader.close();
+                imageReader = null;
+            }
         }
-//        captureBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 2.0f);
-        // 固定iso
-//        captureBuilder.set(CaptureRequest.SENSOR_SENSITIVITY,);
-
-        // 自动白平衡
-        captureBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CameraMetadata.CONTROL_AWB_MODE_AUTO);
-
-        //实际运行是对焦距离采用超焦距，以获得手机相机的最大景深
-        //标定时，对焦距离设置为可以清晰的排到标定板
-        //为啥不采用自动对焦，因为自动对焦时，图像会发生较大的变化，对于SLAM前后2帧对比造成干扰。
-        captureBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0.333f);//超焦距的计算  H=（f*f）/c*F
-        // H为计算的超焦距，f为焦距 c为弥散圆直径，F为光圈，弥散圆直径对于全画幅是0.03 ，对于半画幅要除以1.5，对于手机的CMOS，要根据DevCheck中读取到的相机裁切稀系数计算
-
-        //尽量降低曝光时间，减少卷帘快门的影响
-        captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, 8000000L);
-        //output Surface
-        List<Surface> outputSurfaces = new ArrayList<>();
-        //设置相机的帧率60
-        captureBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION, 16666668L);
-//        captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, 8000000L);
 
+        private void startPublishers(ConnectedNode connectedNode) {
+            NameResolver resolver = connectedNode.getResolver().newChild(namespace);
+            monoImagePublisher = new MonoImagePublisher(connectedNode, resolver, frameId, sensorClock);
+            compressedImagePublisher =
+                    new CompressedImagePublisher2(connectedNode, resolver, frameId, encoderPool, qualityController,
+                            sensorClock);
+        }
 
-        // 将imageReaders全部放入渲染
-        for (ImageReader imageReader : imageReaders) {
-            captureBuilder.addTarget(imageReader.getSurface());
-            outputSurfaces.add(imageReader.getSurface());
+        /**
+         * Detaches the publishers from the image readers first, so that no
+         * frame is handed to them once they are shut down.
+         */
+        private void shutdownPublishers() {
+            CompressedImagePublisher2 publisher = compressedImagePublisher;
+            MonoImagePublisher monoPublisher = monoImagePublisher;
+            compressedImagePublisher = null;
+            monoImagePublisher = null;
+            if (publisher != null) {
+                publisher.shutdown();
+            }
+            if (monoPublisher != null) {
+                monoPublisher.shutdown();
+            }
         }
 
-        camera.createCaptureSession(outputSurfaces, sessionStateCallback, cameraHandler);
-    }
+        /**
+         * Publishes a {@link ImageFormat#YUV_420_888} image without going
+         * through OpenCV or a {@link android.graphics.Bitmap}.
+         */
+        private void onNewImage(Image image) {
+            long arrivalNanos = CameraPipelineStats.now();
+            long sensorNanos = image.getTimestamp() + timestampShiftNanos;
+            MonoImagePublisher monoPublisher = monoImagePublisher;
+            if (monoPublisher != null) {
+                monoPublisher.onNewImage(image, sensorNanos);
+            }
+            CompressedImagePublisher2 publisher = compressedImagePublisher;
+            if (publisher != null && publisher.hasDemand()) {
+                byte[] nv21 = nv21Packer.pack(image);
+                publisher.onNewRawImage(nv21, image.getWidth(), image.getHeight(), sensorNanos, arrivalNanos);
+            }
+        }
 
-    public CameraCharacteristics getCameraCharacteristics() throws CameraAccessException {
-        final String cameraId = camera.getId();
-        return cameraManager.getCameraCharacteristics(cameraId);
-    }
+        private final ImageReader.OnImageAvailableListener onImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                // Called once per frame. If frames queued up while the previous one
+                // was processed, the first callback takes the newest and closes the
+                // others, and the remaining callbacks find nothing: each of them
+                // stands for one dropped frame.
+                Image image = reader.acquireLatestImage();
+                if (image == null) {
+                    framesDropped.incrementAndGet();
+                    return;
+                }
+                try {
+                    onNewImage(image);
+                    ImageListener listener = imageListener;
+                    if (listener != null) {
+                        listener.onImage(cameraId, image);
+                    }
+                    framesDelivered.incrementAndGet();
+                } finally {
+                    image.close();
+                }
+            }
+        };
+
+        private final CameraCaptureSession.StateCallback sessionStateCallback = new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession session) {
+                try {
+                    //if this session is no longer active, either because the session was explicitly closed
+                    // , a new session has been created or the camera device has been closed.
+                    session.setRepeatingRequest(captureBuilder.build(), null, cameraHandler);
+
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                } catch (IllegalStateException e) {
+                    //CameraDevice was already closed
+                    e.printStackTrace();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
 
+            @Override
+            public void onConfigureFailed(CameraCaptureSession session) {
+                Log.e(TAG, "Failed to configure camera " + cameraId + ".");
+            }
 
-    @Override
-    public GraphName getDefaultNodeName() {
-        return GraphName.of("ros_camera_preview_view");
-    }
+            @Override
+            public void onClosed(@NonNull CameraCaptureSession session) {
+                super.onClosed(session);
 
+            }
+        };
+
+        private final CameraDevice.StateCallback cameraDeviceStateCallback = new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice cameraDevice) {
+                try {
+                    camera = cameraDevice;
+
+                    startCameraView(camera);
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                }
+                if (openCallback != null) {
+                    openCallback.onOpened(cameraDevice);
+                }
+            }
 
-    @Override
-    public void onStart(ConnectedNode connectedNode) {
-        compressedImagePublisher = new CompressedImagePublisher2(connectedNode);
-    }
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                if (openCallback != null) {
+                    openCallback.onDisconnected(camera);
+                }
+            }
 
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                if (openCallback != null) {
+                    openCallback.onError(camera, error);
+                }
+            }
+        };
+
+        /**
+         * starts CameraView
+         */
+        private void startCameraView(CameraDevice camera) throws CameraAccessException {
+            CameraCharacteristics characteristics = getCameraCharacteristics(cameraId);
+            timestampShiftNanos = ImageUtils.getCameraTimestampsShiftWrtSensors(characteristics);
+            Range<Integer>[] fpsRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            if (fpsRanges != null) {
+                for (Range<Integer> r : fpsRanges) {
+                    Log.e("帧率的范围", r.toString());
+                }
+                max = fpsRanges[fpsRanges.length - 1];
+            }
 
-    public static void onNewImage(Bitmap image) {
-        if (compressedImagePublisher != null)
-            compressedImagePublisher.onNewRawImage(image);
-    }
 
-    @Override
-    public void onShutdown(Node node) {
-    }
+            try {
+                // to set request for CameraView
+                captureBuilder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
 
-    @Override
-    public void onShutdownComplete(Node node) {
-    }
+            captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            // 不自动对焦
+            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CONTROL_AF_MODE_OFF);
+            // 自动曝光
+            captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CONTROL_AE_MODE_OFF);
+            if (max != null) {
+                Log.e("设置帧率", max.toString());
+                captureBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, max);
+            }
+//            captureBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 2.0f);
+            // 固定iso
+//            captureBuilder.set(CaptureRequest.SENSOR_SENSITIVITY,);
+
+            // 自动白平衡
+            captureBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CameraMetadata.CONTROL_AWB_MODE_AUTO);
+
+            //实际运行是对焦距离采用超焦距，以获得手机相机的最大景深
+            //标定时，对焦距离设置为可以清晰的排到标定板
+            //为啥不采用自动对焦，因为自动对焦时，图像会发生较大的变化，对于SLAM前后2帧对比造成干扰。
+            captureBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0.333f);//超焦距的计算  H=（f*f）/c*F
+            // H为计算的超焦距，f为焦距 c为弥散圆直径，F为光圈，弥散圆直径对于全画幅是0.03 ，对于半画幅要除以1.5，对于手机的CMOS，要根据DevCheck中读取到的相机裁切稀系数计算
+
+            //尽量降低曝光时间，减少卷帘快门的影响
+            captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, 8000000L);
+            //output Surface
+            List<Surface> outputSurfaces = new ArrayList<>();
+            //设置相机的帧率60
+            captureBuilder.set(CaptureRequest.SENSOR_FRAME_DURATION, 16666668L);
+//            captureBuilder.set(CaptureRequest.SENSOR_EXPOSURE_TIME, 8000000L);
+
+
+            // 将imageReaders全部放入渲染
+            for (ImageReader imageReader : imageReaders) {
+                captureBuilder.addTarget(imageReader.getSurface());
+                outputSurfaces.add(imageReader.getSurface());
+            }
 
-    @Override
-    public void onError(Node node, Throwable throwable) {
+            camera.createCaptureSession(outputSurfaces, sessionStateCallback, cameraHandler);
+        }
     }
 }
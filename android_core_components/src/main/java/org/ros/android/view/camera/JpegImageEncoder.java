@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.OutputStream;
+
+/**
+ * Compresses NV21 frames to JPEG straight from the YUV data with
+ * {@link YuvImage}, without any colour conversion.
+ *
+ * <p>
+ * A {@link YuvImage} wraps one frame array. Frames are encoded from a small
+ * set of buffers that are reused (encoder slots, pyramid levels, the crop
+ * output), so each thread keeps the images of the last few buffers it
+ * encoded and a {@link Rect}, and allocates nothing while those stay the same.
+ */
+class JpegImageEncoder implements ImageEncoder {
+    private static final int CACHED_IMAGES = 4;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        private final YuvImage[] images = new YuvImage[CACHED_IMAGES];
+        private final Rect rect = new Rect();
+        private int next;
+
+        private YuvImage get(byte[] nv21, int width, int height) {
+            for (YuvImage image : images) {
+                if (image != null && image.getYuvData() == nv21 && image.getWidth() == width
+                        && image.getHeight() == height) {
+                    return image;
+                }
+            }
+            // Replace the oldest entry.
+            YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+            images[next] = image;
+            next = (next + 1) % CACHED_IMAGES;
+            return image;
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return "jpeg";
+    }
+
+    @Override
+    public boolean isLossy() {
+        return true;
+    }
+
+    @Override
+    public boolean encode(byte[] nv21, int width, int height, int quality, OutputStream out) {
+        Scratch threadScratch = scratch.get();
+        threadScratch.rect.set(0, 0, width, height);
+        return threadScratch.get(nv21, width, height).compressToJpeg(threadScratch.rect, quality, out);
+    }
+
+    @Override
+    public boolean encode(Bitmap bitmap, int quality, OutputStream out) {
+        return bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.Parameters;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * Closed-loop controller for the JPEG quality of a camera stream.
+ *
+ * <p>
+ * After every frame the measured encode duration and compressed size are fed
+ * back. Quality is lowered proportionally to how far the stream is over its
+ * encode time budget (one frame period at the target frame rate) or its
+ * bandwidth budget, and raised again one step at a time once there is enough
+ * headroom. With neither target set the quality stays fixed.
+ *
+ * <p>
+ * Several streams, e.g. the cameras of a node and their reduced resolution
+ * levels, can share one controller. Their frames are then measured as one
+ * stream: the bandwidth budget covers all of them together, and the encode
+ * budget is one frame period of the combined frame rate when that is faster
+ * than the target.
+ */
+class JpegQualityController {
+    static final int DEFAULT_QUALITY = 90;
+    static final int DEFAULT_MINIMUM_QUALITY = 30;
+
+    private static final double OVERLOAD_THRESHOLD = 1.05;
+    private static final double HEADROOM_THRESHOLD = 0.85;
+    private static final int MAXIMUM_STEP = 10;
+
+    private int quality;
+    private int minimumQuality;
+    private int maximumQuality;
+    private long targetFramePeriodNanos;
+    private long targetBytesPerSecond;
+    private int encoderThreads = 1;
+
+    private double averageEncodeNanos;
+    private double averageBytes;
+    private double averageFramePeriodNanos;
+    private long lastFrameNanos;
+
+    public JpegQualityController(int quality) {
+        Preconditions.checkArgument(quality > 0 && quality <= 100);
+        this.quality = quality;
+        this.minimumQuality = Math.min(DEFAULT_MINIMUM_QUALITY, quality);
+        this.maximumQuality = quality;
+    }
+
+    /**
+     * Creates a controller configured from the node's private parameters
+     * {@code ~jpeg_quality}, {@code ~jpeg_min_quality},
+     * {@code ~target_frame_rate} (Hz) and {@code ~target_bandwidth} (bytes per
+     * second). A target of 0 disables that part of the loop. The minimum is
+     * clamped to {@code ~jpeg_quality}.
+     */
+    public static JpegQualityController fromParameters(ConnectedNode connectedNode) {
+        ParameterTree parameters = connectedNode.getParameterTree();
+        JpegQualityController controller =
+                new JpegQualityController(parameters.getInteger("~jpeg_quality", DEFAULT_QUALITY));
+        // A ~jpeg_quality below the default minimum lowers the minimum with
+        // it, and an explicit minimum above ~jpeg_quality is capped.
+        int minimumQuality = parameters.getInteger("~jpeg_min_quality", controller.minimumQuality);
+        controller.setQualityRange(Math.max(1, Math.min(minimumQuality, controller.maximumQuality)),
+                controller.maximumQuality);
+        controller.setTargetFrameRate(Parameters.getDouble(parameters, "~target_frame_rate", 0));
+        controller.setTargetBytesPerSecond(parameters.getInteger("~target_bandwidth", 0));
+        return controller;
+    }
+
+    public synchronized void setQualityRange(int minimumQuality, int maximumQuality) {
+        Preconditions.checkArgument(0 < minimumQuality && minimumQuality <= maximumQuality && maximumQuality <= 100);
+        this.minimumQuality = minimumQuality;
+        this.maximumQuality = maximumQuality;
+        quality = Math.max(minimumQuality, Math.min(maximumQuality, quality));
+    }
+
+    /**
+     * @param frameRate frames per second that encoding must keep up with, or 0
+     */
+    public synchronized void setTargetFrameRate(double frameRate) {
+        targetFramePeriodNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+    }
+
+    /**
+     * @param bytesPerSecond outbound budget of the compressed stream, or 0
+     */
+    public synchronized void setTargetBytesPerSecond(long bytesPerSecond) {
+        targetBytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * With several encoder threads each frame may take proportionally longer
+     * than one frame period without falling behind.
+     */
+    public synchronized void setEncoderThreads(int encoderThreads) {
+        Preconditions.checkArgument(encoderThreads > 0);
+        this.encoderThreads = encoderThreads;
+    }
+
+    /**
+     * @return the quality to use for the next frame
+     */
+    public synchronized int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Feeds back the cost of the frame that was just encoded.
+     *
+     * @param encodeNanos time spent compressing the frame
+     * @param compressedBytes size of the compressed frame
+     * @param frameNanos monotonic time at which the frame was published.
+     *     Frames must be fed in publication order.
+     */
+    public synchronized void update(long encodeNanos, int compressedBytes, long frameNanos) {
+        if (lastFrameNanos != 0) {
+            // Streams publishing on different threads may report slightly out
+            // of order.
+            averageFramePeriodNanos = average(averageFramePeriodNanos, Math.max(0, frameNanos - lastFrameNanos));
+        }
+        lastFrameNanos = Math.max(lastFrameNanos, frameNanos);
+        averageEncodeNanos = average(averageEncodeNanos, encodeNanos);
+        averageBytes = average(averageBytes, compressedBytes);
+
+        double load = 0;
+        if (targetFramePeriodNanos > 0) {
+            double framePeriodNanos = targetFramePeriodNanos;
+            if (averageFramePeriodNanos > 0) {
+                framePeriodNanos = Math.min(framePeriodNanos, averageFramePeriodNanos);
+            }
+            load = averageEncodeNanos / (framePeriodNanos * encoderThreads);
+        }
+        if (targetBytesPerSecond > 0 && averageFramePeriodNanos > 0) {
+            double bytesPerSecond = averageBytes * 1e9 / averageFramePeriodNanos;
+            load = Math.max(load, bytesPerSecond / targetBytesPerSecond);
+        }
+        if (load == 0) {
+            return;
+        }
+        if (load > OVERLOAD_THRESHOLD) {
+            int step = (int) Math.min(MAXIMUM_STEP, Math.ceil((load - 1) * quality / 2));
+            quality = Math.max(minimumQuality, quality - step);
+        } else if (load < HEADROOM_THRESHOLD) {
+            quality = Math.min(maximumQuality, quality + 1);
+        }
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + (sample - average) / 8;
+    }
+}
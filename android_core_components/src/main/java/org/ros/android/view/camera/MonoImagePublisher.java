@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.hardware.Camera.Size;
+import android.media.Image;
+
+import com.google.common.base.Preconditions;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.android.SensorClock;
+import org.ros.android.SubscriberDemand;
+import org.ros.message.Time;
+import org.ros.namespace.NameResolver;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Publishes the luma channel of preview frames as uncompressed mono8 images.
+ *
+ * <p>
+ * The Y plane is copied in bulk into a pooled message buffer, without colour
+ * conversion or compression. Nothing is copied while the topic has no
+ * subscribers.
+ */
+class MonoImagePublisher implements RawImageListener {
+    private static final String ENCODING = "mono8";
+
+    private final Publisher<sensor_msgs.Image> imagePublisher;
+    private final CompressedImageBufferPool bufferPool;
+    private final SubscriberDemand imageDemand;
+    private final String frameId;
+    private final SensorClock sensorClock;
+
+    public MonoImagePublisher(ConnectedNode connectedNode) {
+        this(connectedNode, connectedNode.getResolver().newChild("android"), "camera",
+                new SensorClock(connectedNode));
+    }
+
+    /**
+     * @param resolver namespace of the image topics
+     * @param sensorClock maps capture times to the stamps of the images
+     */
+    public MonoImagePublisher(ConnectedNode connectedNode, NameResolver resolver, String frameId,
+                              SensorClock sensorClock) {
+        this.frameId = frameId;
+        this.sensorClock = sensorClock;
+        imagePublisher = connectedNode.newPublisher(resolver.resolve("image_mono"), sensor_msgs.Image._TYPE);
+        bufferPool = new CompressedImageBufferPool();
+        imageDemand = new SubscriberDemand(connectedNode);
+        imageDemand.watch(imagePublisher);
+    }
+
+    /**
+     * Publishes the Y plane of an NV21 preview frame.
+     */
+    @Override
+    public void onNewRawImage(byte[] data, Size size, long arrivalNanos) {
+        Preconditions.checkNotNull(data);
+        Preconditions.checkNotNull(size);
+        if (!imageDemand.hasDemand()) {
+            return;
+        }
+        CompressedImageBufferPool.PooledBuffer pooledBuffer = bufferPool.acquire();
+        try {
+            // NV21 starts with the full resolution, tightly packed luma plane.
+            pooledBuffer.getBuffer().writeBytes(data, 0, size.width * size.height);
+            publish(pooledBuffer, size.width, size.height, sensorClock.toRosTime(arrivalNanos));
+        } finally {
+            bufferPool.release(pooledBuffer);
+        }
+    }
+
+    /**
+     * Publishes plane 0 of a {@link android.graphics.ImageFormat#YUV_420_888}
+     * image. Must be called before the image is closed.
+     *
+     * @param sensorNanos start of exposure on the {@link SensorClock#now()}
+     *     clock
+     */
+    public void onNewImage(Image image, long sensorNanos) {
+        if (!imageDemand.hasDemand()) {
+            return;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane plane = image.getPlanes()[0];
+        Preconditions.checkArgument(plane.getPixelStride() == 1);
+        ByteBuffer luma = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int limit = luma.limit();
+        CompressedImageBufferPool.PooledBuffer pooledBuffer = bufferPool.acquire();
+        try {
+            ChannelBuffer buffer = pooledBuffer.getBuffer();
+            if (rowStride == width) {
+                luma.limit(width * height);
+                luma.position(0);
+                buffer.writeBytes(luma);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    luma.limit(row * rowStride + width);
+                    luma.position(row * rowStride);
+                    buffer.writeBytes(luma);
+                }
+            }
+            publish(pooledBuffer, width, height, sensorClock.toRosTime(sensorNanos));
+        } finally {
+            // Other consumers of the same image expect the plane untouched.
+            luma.limit(limit);
+            luma.position(0);
+            bufferPool.release(pooledBuffer);
+        }
+    }
+
+    public void shutdown() {
+        imageDemand.shutdown();
+    }
+
+    private void publish(CompressedImageBufferPool.PooledBuffer pooledBuffer, int width, int height, Time stamp) {
+        sensor_msgs.Image image = imagePublisher.newMessage();
+        image.getHeader().setStamp(stamp);
+        image.getHeader().setFrameId(frameId);
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setEncoding(ENCODING);
+        image.setIsBigendian((byte) 0);
+        image.setStep(width);
+        image.setData(pooledBuffer.getBuffer());
+        imagePublisher.publish(image);
+        bufferPool.published(pooledBuffer);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+import org.ros.android.Parameters;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * Skips frames that look the same as the last published one.
+ *
+ * <p>
+ * Each frame is reduced to a {@link #GRID_WIDTH} x {@link #GRID_HEIGHT}
+ * signature of mean luma values, sampling every {@link #SAMPLE_STEP}th pixel
+ * of every {@link #SAMPLE_STEP}th row of the Y plane. A frame passes if the
+ * mean absolute difference between its signature and the last passed one
+ * reaches the threshold, or if nothing passed for longer than the keep-alive
+ * period. A frame that passes only becomes the reference for the following
+ * ones once it is {@link #commit() committed}, i.e. actually accepted for
+ * publication: a frame dropped afterwards, e.g. because every encoder was
+ * busy, does not hide the change it carried. Not thread-safe: use it from
+ * the thread that delivers the frames.
+ */
+class MotionGate {
+    private static final int GRID_WIDTH = 32;
+    private static final int GRID_HEIGHT = 24;
+    private static final int SAMPLE_STEP = 4;
+
+    private final double threshold;
+    private final long keepAliveNanos;
+    private final int[] sums;
+    private final int[] counts;
+    private int[] signature;
+    private int[] lastSignature;
+    private int lastWidth;
+    private int lastHeight;
+    private long lastPassedNanos;
+    private int passedWidth;
+    private int passedHeight;
+    private long passedNanos;
+    private boolean passed;
+    private long framesSkipped;
+
+    /**
+     * @param threshold mean absolute luma difference (0 to 255) from which a
+     *     frame counts as changed
+     * @param keepAliveRate minimum rate in Hz at which frames pass anyway, or
+     *     0 to let unchanged frames never pass
+     */
+    public MotionGate(double threshold, double keepAliveRate) {
+        Preconditions.checkArgument(threshold > 0);
+        this.threshold = threshold;
+        this.keepAliveNanos = keepAliveRate > 0 ? (long) (1e9 / keepAliveRate) : Long.MAX_VALUE;
+        sums = new int[GRID_WIDTH * GRID_HEIGHT];
+        counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        signature = new int[GRID_WIDTH * GRID_HEIGHT];
+        lastSignature = new int[GRID_WIDTH * GRID_HEIGHT];
+    }
+
+    /**
+     * Creates a gate configured by {@code ~motion_threshold} and
+     * {@code ~motion_keepalive_rate} (Hz, 1 by default).
+     *
+     * @return the gate, or {@code null} if every frame should be published
+     *     ({@code ~motion_threshold} unset or 0)
+     */
+    public static MotionGate fromParameters(ConnectedNode connectedNode) {
+        ParameterTree parameters = connectedNode.getParameterTree();
+        double threshold = Parameters.getDouble(parameters, "~motion_threshold", 0);
+        if (threshold <= 0) {
+            return null;
+        }
+        return new MotionGate(threshold, Parameters.getDouble(parameters, "~motion_keepalive_rate", 1));
+    }
+
+    /**
+     * @param luma frame starting with its tightly packed Y plane, e.g. NV21
+     * @param nowNanos monotonic time of the frame
+     * @return {@code true} if the frame should be published, in which case
+     *     {@link #commit()} must be called once it was accepted
+     */
+    public boolean pass(byte[] luma, int width, int height, long nowNanos) {
+        passed = false;
+        computeSignature(luma, width, height);
+        boolean pass = width != lastWidth || height != lastHeight
+                || nowNanos - lastPassedNanos >= keepAliveNanos
+                || difference() >= threshold;
+        if (!pass) {
+            framesSkipped++;
+            return false;
+        }
+        passedWidth = width;
+        passedHeight = height;
+        passedNanos = nowNanos;
+        passed = true;
+        return true;
+    }
+
+    /**
+     * Makes the frame that last passed the reference for the following ones.
+     * Does nothing if it was already committed or the last frame did not
+     * pass.
+     */
+    public void commit() {
+        if (!passed) {
+            return;
+        }
+        passed = false;
+        int[] previous = lastSignature;
+        lastSignature = signature;
+        signature = previous;
+        lastWidth = passedWidth;
+        lastHeight = passedHeight;
+        lastPassedNanos = passedNanos;
+    }
+
+    /**
+     * @return the number of frames that did not pass
+     */
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    private void computeSignature(byte[] luma, int width, int height) {
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = 0;
+            counts[i] = 0;
+        }
+        for (int y = 0; y < height; y += SAMPLE_STEP) {
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x += SAMPLE_STEP) {
+                int cell = cellRow + x * GRID_WIDTH / width;
+                sums[cell] += luma[rowOffset + x] & 0xff;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            signature[i] = counts[i] > 0 ? sums[i] / counts[i] : 0;
+        }
+    }
+
+    private double difference() {
+        long total = 0;
+        for (int i = 0; i < signature.length; i++) {
+            total += Math.abs(signature[i] - lastSignature[i]);
+        }
+        return (double) total / signature.length;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Box filters for NV21 frames. All methods write into caller-owned arrays and
+ * never allocate.
+ */
+final class Nv21Downsampler {
+
+    private Nv21Downsampler() {
+    }
+
+    /**
+     * @return the size of an NV21 frame of the given dimensions
+     */
+    static int frameLength(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * @return {@code true} if a frame of this size can be halved into a valid
+     *     NV21 frame, i.e. the result has even, non-zero dimensions
+     */
+    static boolean canHalve(int width, int height) {
+        return width >= 4 && height >= 4 && (width / 2) % 2 == 0 && (height / 2) % 2 == 0;
+    }
+
+    /**
+     * Averages every 2x2 block of luma and every 2x2 block of chroma samples
+     * of {@code source} into {@code destination}, which must hold at least
+     * {@link #frameLength}{@code (width / 2, height / 2)} bytes.
+     */
+    static void halve(byte[] source, int width, int height, byte[] destination) {
+        Preconditions.checkArgument(canHalve(width, height));
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        Preconditions.checkArgument(destination.length >= frameLength(halfWidth, halfHeight));
+
+        for (int y = 0; y < halfHeight; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            int out = y * halfWidth;
+            for (int x = 0; x < halfWidth; x++) {
+                int in = 2 * x;
+                int sum = (source[row0 + in] & 0xff) + (source[row0 + in + 1] & 0xff)
+                        + (source[row1 + in] & 0xff) + (source[row1 + in + 1] & 0xff);
+                destination[out + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+
+        // Interleaved V/U samples, one pair per 2x2 pixels. Average 2x2 pairs.
+        int sourceChroma = width * height;
+        int destinationChroma = halfWidth * halfHeight;
+        for (int y = 0; y < halfHeight / 2; y++) {
+            int row0 = sourceChroma + 2 * y * width;
+            int row1 = row0 + width;
+            int out = destinationChroma + y * halfWidth;
+            for (int x = 0; x < halfWidth; x += 2) {
+                int in = 2 * x;
+                int v = (source[row0 + in] & 0xff) + (source[row0 + in + 2] & 0xff)
+                        + (source[row1 + in] & 0xff) + (source[row1 + in + 2] & 0xff);
+                int u = (source[row0 + in + 1] & 0xff) + (source[row0 + in + 3] & 0xff)
+                        + (source[row1 + in + 1] & 0xff) + (source[row1 + in + 3] & 0xff);
+                destination[out + x] = (byte) ((v + 2) >> 2);
+                destination[out + x + 1] = (byte) ((u + 2) >> 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs {@link ImageFormat#YUV_420_888} images into a reusable NV21 array that
+ * can be fed to {@link android.graphics.YuvImage} without any colour
+ * conversion.
+ *
+ * <p>
+ * Row and pixel strides of every plane are honoured, so both semi-planar and
+ * planar layouts are supported. No memory is allocated once the first frame
+ * of a given size has been packed. Instances are not thread safe.
+ */
+public class Nv21Packer {
+    private byte[] nv21;
+    private byte[] rowScratch;
+    private byte[] uRow;
+    private byte[] vRow;
+
+    /**
+     * @return the NV21 bytes of {@code image}. The array is reused by the next
+     * call to {@code pack}.
+     */
+    public byte[] pack(Image image) {
+        Preconditions.checkArgument(image.getFormat() == ImageFormat.YUV_420_888);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int frameSize = width * height;
+        if (nv21 == null || nv21.length != frameSize + frameSize / 2) {
+            nv21 = new byte[frameSize + frameSize / 2];
+        }
+        Image.Plane[] planes = image.getPlanes();
+        packLuma(planes[0], width, height);
+        packChroma(planes[1], planes[2], width, height, frameSize);
+        return nv21;
+    }
+
+    private void packLuma(Image.Plane plane, int width, int height) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        if (pixelStride == 1 && rowStride == width) {
+            buffer.position(0);
+            buffer.get(nv21, 0, width * height);
+            return;
+        }
+        int output = 0;
+        for (int row = 0; row < height; row++) {
+            buffer.position(row * rowStride);
+            if (pixelStride == 1) {
+                buffer.get(nv21, output, width);
+                output += width;
+            } else {
+                byte[] scratch = readRow(buffer, row * rowStride, (width - 1) * pixelStride + 1);
+                for (int col = 0; col < width; col++) {
+                    nv21[output++] = scratch[col * pixelStride];
+                }
+            }
+        }
+    }
+
+    private void packChroma(Image.Plane uPlane, Image.Plane vPlane, int width, int height, int offset) {
+        ByteBuffer uBuffer = uPlane.getBuffer();
+        ByteBuffer vBuffer = vPlane.getBuffer();
+        int uRowStride = uPlane.getRowStride();
+        int vRowStride = vPlane.getRowStride();
+        int uPixelStride = uPlane.getPixelStride();
+        int vPixelStride = vPlane.getPixelStride();
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int uLength = (chromaWidth - 1) * uPixelStride + 1;
+        int vLength = (chromaWidth - 1) * vPixelStride + 1;
+        if (uRow == null || uRow.length < uLength) {
+            uRow = new byte[uLength];
+        }
+        if (vRow == null || vRow.length < vLength) {
+            vRow = new byte[vLength];
+        }
+        int output = offset;
+        for (int row = 0; row < chromaHeight; row++) {
+            uBuffer.position(row * uRowStride);
+            uBuffer.get(uRow, 0, uLength);
+            vBuffer.position(row * vRowStride);
+            vBuffer.get(vRow, 0, vLength);
+            // NV21 interleaves chroma as V, U.
+            for (int col = 0; col < chromaWidth; col++) {
+                nv21[output++] = vRow[col * vPixelStride];
+                nv21[output++] = uRow[col * uPixelStride];
+            }
+        }
+    }
+
+    private byte[] readRow(ByteBuffer buffer, int position, int length) {
+        if (rowScratch == null || rowScratch.length < length) {
+            rowScratch = new byte[length];
+        }
+        buffer.position(position);
+        buffer.get(rowScratch, 0, length);
+        return rowScratch;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import android.hardware.Camera.Size;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands preview frames from the camera thread over to a dedicated encoder
+ * thread.
+ *
+ * <p>
+ * The camera thread never waits for the {@link RawImageListener}. If the
+ * encoder is still busy when a new frame arrives, the frame that is waiting is
+ * superseded by the newest one and its buffer is handed back to the camera
+ * right away (latest wins).
+ */
+class PreviewFrameDispatcher {
+
+  private static final String TAG = "PreviewFrameDispatcher";
+
+  /**
+   * Returns a preview buffer to the camera once nobody references it anymore.
+   */
+  interface BufferRecycler {
+    void recycle(byte[] buffer);
+  }
+
+  private final BufferRecycler bufferRecycler;
+  private final Object mutex;
+  private final AtomicLong framesCaptured;
+  private final AtomicLong framesEncoded;
+  private final AtomicLong framesDropped;
+
+  private volatile RawImageListener rawImageListener;
+  private Thread encoderThread;
+  private byte[] pendingBuffer;
+  private Size pendingSize;
+  private long pendingArrivalNanos;
+
+  PreviewFrameDispatcher(BufferRecycler bufferRecycler) {
+    this.bufferRecycler = bufferRecycler;
+    mutex = new Object();
+    framesCaptured = new AtomicLong();
+    framesEncoded = new AtomicLong();
+    framesDropped = new AtomicLong();
+  }
+
+  void setRawImageListener(RawImageListener rawImageListener) {
+    this.rawImageListener = rawImageListener;
+  }
+
+  void start() {
+    synchronized (mutex) {
+      if (encoderThread != null) {
+        return;
+      }
+      encoderThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          loop();
+        }
+      }, "CameraPreviewEncoder");
+      encoderThread.start();
+    }
+  }
+
+  /**
+   * Stops the encoder thread. A frame that is still waiting is dropped and its
+   * buffer recycled; a frame that is currently being encoded finishes normally.
+   */
+  void shutdown() {
+    byte[] discarded;
+    synchronized (mutex) {
+      if (encoderThread == null) {
+        return;
+      }
+      encoderThread = null;
+      discarded = pendingBuffer;
+      pendingBuffer = null;
+      pendingSize = null;
+      mutex.notifyAll();
+    }
+    if (discarded != null) {
+      framesDropped.incrementAndGet();
+      bufferRecycler.recycle(discarded);
+    }
+  }
+
+  /**
+   * Called on the camera thread for every preview frame. Returns immediately.
+   */
+  void dispatch(byte[] data, Size size) {
+    framesCaptured.incrementAndGet();
+    long arrivalNanos = SystemClock.elapsedRealtimeNanos();
+    byte[] superseded;
+    synchronized (mutex) {
+      if (encoderThread == null) {
+        superseded = data;
+      } else {
+        superseded = pendingBuffer;
+        pendingBuffer = data;
+        pendingSize = size;
+        pendingArrivalNanos = arrivalNanos;
+        mutex.notifyAll();
+      }
+    }
+    if (superseded != null) {
+      framesDropped.incrementAndGet();
+      bufferRecycler.recycle(superseded);
+    }
+  }
+
+  long getFramesCaptured() {
+    return framesCaptured.get();
+  }
+
+  long getFramesEncoded() {
+    return framesEncoded.get();
+  }
+
+  long getFramesDropped() {
+    return framesDropped.get();
+  }
+
+  private void loop() {
+    Thread self = Thread.currentThread();
+    while (true) {
+      byte[] buffer;
+      Size size;
+      long arrivalNanos;
+      synchronized (mutex) {
+        while (encoderThread == self && pendingBuffer == null) {
+          try {
+            mutex.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (encoderThread != self) {
+          return;
+        }
+        buffer = pendingBuffer;
+        size = pendingSize;
+        arrivalNanos = pendingArrivalNanos;
+        pendingBuffer = null;
+        pendingSize = null;
+      }
+      RawImageListener listener = rawImageListener;
+      try {
+        if (listener != null) {
+          listener.onNewRawImage(buffer, size, arrivalNanos);
+          framesEncoded.incrementAndGet();
+        } else {
+          framesDropped.incrementAndGet();
+        }
+      } catch (RuntimeException e) {
+        framesDropped.incrementAndGet();
+        Log.e(TAG, "Failed to process preview frame.", e);
+      } finally {
+        bufferRecycler.recycle(buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes NV21 frames through uncompressed, with the format {@code "nv21"}.
+ * Subscribers need the frame size from {@code camera_info} to interpret the
+ * payload. Bitmaps are not supported.
+ */
+class RawImageEncoder implements ImageEncoder {
+
+    @Override
+    public String getFormat() {
+        return "nv21";
+    }
+
+    @Override
+    public boolean isLossy() {
+        return false;
+    }
+
+    @Override
+    public boolean encode(byte[] nv21, int width, int height, int quality, OutputStream out) {
+        try {
+            out.write(nv21, 0, Nv21Downsampler.frameLength(width, height));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean encode(Bitmap bitmap, int quality, OutputStream out) {
+        return false;
+    }
+}
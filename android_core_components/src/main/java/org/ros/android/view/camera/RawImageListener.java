@@ -4,6 +4,10 @@ import android.hardware.Camera.Size;
 
 interface RawImageListener {
 
-  void onNewRawImage(byte[] data, Size size);
+  /**
+   * @param arrivalNanos {@link android.os.SystemClock#elapsedRealtimeNanos()}
+   *     at which the camera delivered the frame
+   */
+  void onNewRawImage(byte[] data, Size size, long arrivalNanos);
 
 }
\ No newline at end of file
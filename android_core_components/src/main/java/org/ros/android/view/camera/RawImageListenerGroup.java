@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.view.camera;
+
+import android.hardware.Camera.Size;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards each preview frame to several {@link RawImageListener}s in turn.
+ */
+class RawImageListenerGroup implements RawImageListener {
+
+  private final List<RawImageListener> rawImageListeners;
+
+  RawImageListenerGroup() {
+    rawImageListeners = new CopyOnWriteArrayList<>();
+  }
+
+  void add(RawImageListener rawImageListener) {
+    rawImageListeners.add(rawImageListener);
+  }
+
+  @Override
+  public void onNewRawImage(byte[] data, Size size, long arrivalNanos) {
+    for (RawImageListener rawImageListener : rawImageListeners) {
+      rawImageListener.onNewRawImage(data, size, arrivalNanos);
+    }
+  }
+}
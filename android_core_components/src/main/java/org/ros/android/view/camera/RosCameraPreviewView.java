@@ -30,6 +30,9 @@ import org.ros.node.NodeMain;
  */
 public class RosCameraPreviewView extends CameraPreviewView implements NodeMain {
 
+  private volatile CompressedImagePublisher compressedImagePublisher;
+  private volatile MonoImagePublisher monoImagePublisher;
+
   public RosCameraPreviewView(Context context) {
     super(context);
   }
@@ -50,11 +53,33 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
 
   @Override
   public void onStart(ConnectedNode connectedNode) {
-    setRawImageListener(new CompressedImagePublisher(connectedNode));
+    RawImageListenerGroup rawImageListeners = new RawImageListenerGroup();
+    compressedImagePublisher = new CompressedImagePublisher(connectedNode);
+    rawImageListeners.add(compressedImagePublisher);
+    monoImagePublisher = new MonoImagePublisher(connectedNode);
+    rawImageListeners.add(monoImagePublisher);
+    setRawImageListener(rawImageListeners);
+  }
+
+  /**
+   * @return per-stage latency of the compressed image stream, or {@code null}
+   *     before the node has started
+   */
+  public CameraPipelineStats getPipelineStats() {
+    CompressedImagePublisher publisher = compressedImagePublisher;
+    return publisher != null ? publisher.getPipelineStats() : null;
   }
 
   @Override
   public void onShutdown(Node node) {
+    // Stop delivering preview frames before the encoder pool goes away.
+    setRawImageListener(null);
+    if (compressedImagePublisher != null) {
+      compressedImagePublisher.shutdown();
+    }
+    if (monoImagePublisher != null) {
+      monoImagePublisher.shutdown();
+    }
   }
 
   @Override
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentileNanos(50));
+    assertEquals(0, histogram.getPercentileNanos(99));
+  }
+
+  @Test
+  public void shortDurationsAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 1; micros <= 10; micros++) {
+      histogram.recordNanos(micros * 1000L);
+    }
+    assertEquals(10, histogram.getCount());
+    assertEquals(1000, histogram.getPercentileNanos(0));
+    assertEquals(1000, histogram.getPercentileNanos(10));
+    assertEquals(5000, histogram.getPercentileNanos(50));
+    assertEquals(9000, histogram.getPercentileNanos(90));
+    assertEquals(10000, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void longDurationsAreWithinBucketResolution() {
+    long[] micros = {16, 17, 100, 999, 1000, 16667, 33333, 123456, 5000000};
+    for (long value : micros) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.recordNanos(value * 1000);
+      long reported = histogram.getPercentileNanos(50) / 1000;
+      assertTrue(value + " reported as " + reported, reported >= value);
+      assertTrue(value + " reported as " + reported, reported <= value * 1.125 + 1);
+    }
+  }
+
+  @Test
+  public void outOfRangeDurationsAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordNanos(-5000);
+    assertEquals(0, histogram.getPercentileNanos(100));
+    histogram.recordNanos(Long.MAX_VALUE);
+    assertEquals(2, histogram.getCount());
+    assertTrue(histogram.getPercentileNanos(100) > 0);
+  }
+
+  @Test
+  public void percentileOfSnapshotDifference() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 100; i++) {
+      histogram.recordNanos(2000);
+    }
+    long[] before = new long[LatencyHistogram.getBucketCount()];
+    histogram.snapshot(before);
+    for (int i = 0; i < 10; i++) {
+      histogram.recordNanos(8000);
+    }
+    long[] after = new long[LatencyHistogram.getBucketCount()];
+    histogram.snapshot(after);
+    for (int i = 0; i < after.length; i++) {
+      after[i] -= before[i];
+    }
+    // Only the durations recorded between the snapshots count.
+    assertEquals(8000, LatencyHistogram.getPercentileNanos(after, 50));
+    assertEquals(2000, histogram.getPercentileNanos(50));
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SensorHistoryTest {
+
+  private static float[] sample(long timestamp) {
+    return new float[]{timestamp, 2 * timestamp, -timestamp};
+  }
+
+  @Test
+  public void roundsCapacityUpToAPowerOfTwo() {
+    assertEquals(8, new SensorHistory(5, 3, false).getCapacity());
+    assertEquals(8, new SensorHistory(8, 3, false).getCapacity());
+  }
+
+  @Test
+  public void ignoresSamplesThatAreNotNewer() {
+    SensorHistory history = new SensorHistory(8, 3, false);
+    assertEquals(Long.MIN_VALUE, history.getLatestTimestamp());
+    history.add(10, sample(10));
+    history.add(10, sample(11));
+    history.add(5, sample(5));
+    assertEquals(1, history.getCount());
+    assertEquals(10, history.getLatestTimestamp());
+  }
+
+  @Test
+  public void copiesSamplesInRange() {
+    SensorHistory history = new SensorHistory(8, 3, false);
+    for (long t = 10; t <= 50; t += 10) {
+      history.add(t, sample(t));
+    }
+    long[] timestamps = new long[8];
+    float[] values = new float[8 * 3];
+    assertEquals(3, history.samplesBetween(15, 40, timestamps, values));
+    assertEquals(20, timestamps[0]);
+    assertEquals(40, timestamps[2]);
+    assertArrayEquals(sample(30), new float[]{values[3], values[4], values[5]}, 0);
+    // Bounds are inclusive.
+    assertEquals(5, history.samplesBetween(10, 50, timestamps, values));
+    assertEquals(0, history.samplesBetween(60, 70, timestamps, values));
+    // Only as many as fit, oldest first.
+    long[] two = new long[2];
+    assertEquals(2, history.samplesBetween(0, 100, two, new float[2 * 3]));
+    assertEquals(10, two[0]);
+    assertEquals(20, two[1]);
+  }
+
+  @Test
+  public void forgetsOverwrittenSamples() {
+    SensorHistory history = new SensorHistory(4, 3, false);
+    for (long t = 1; t <= 10; t++) {
+      history.add(t, sample(t));
+    }
+    long[] timestamps = new long[8];
+    float[] values = new float[8 * 3];
+    // The slot that is overwritten next does not count as held.
+    assertEquals(3, history.samplesBetween(0, 100, timestamps, values));
+    assertEquals(8, timestamps[0]);
+    assertEquals(10, timestamps[2]);
+  }
+
+  @Test
+  public void interpolatesBetweenSamples() {
+    SensorHistory history = new SensorHistory(8, 3, false);
+    history.add(100, sample(100));
+    history.add(200, sample(200));
+    float[] out = new float[3];
+    assertTrue(history.interpolateAt(150, out));
+    assertArrayEquals(sample(150), out, 1e-3f);
+    assertTrue(history.interpolateAt(200, out));
+    assertArrayEquals(sample(200), out, 0);
+    assertFalse(history.interpolateAt(99, out));
+    assertFalse(history.interpolateAt(201, out));
+  }
+
+  @Test
+  public void interpolatesQuaternionsAlongTheShorterArc() {
+    SensorHistory history = new SensorHistory(8, 4, true);
+    float half = (float) Math.sqrt(0.5);
+    history.add(0, new float[]{1, 0, 0, 0});
+    history.add(100, new float[]{-half, 0, 0, -half});
+    float[] out = new float[4];
+    assertTrue(history.interpolateAt(50, out));
+    assertEquals(Math.cos(Math.PI / 8), out[0], 1e-2f);
+    assertEquals(Math.sin(Math.PI / 8), out[3], 1e-2f);
+    assertEquals(1, out[0] * out[0] + out[3] * out[3], 1e-5f);
+  }
+
+  @Test
+  public void readersNeverSeeTornSamples() throws InterruptedException {
+    final SensorHistory history = new SensorHistory(16, 3, false);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicReference<String> failure = new AtomicReference<>();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        long[] timestamps = new long[16];
+        float[] values = new float[16 * 3];
+        float[] out = new float[3];
+        while (running.get()) {
+          int copied = history.samplesBetween(0, Long.MAX_VALUE, timestamps, values);
+          for (int i = 0; i < copied; i++) {
+            float[] expected = sample(timestamps[i]);
+            for (int d = 0; d < 3; d++) {
+              if (values[3 * i + d] != expected[d]) {
+                failure.set("sample " + timestamps[i] + " read as " + values[3 * i + d]);
+              }
+            }
+          }
+          long latest = history.getLatestTimestamp();
+          if (latest > 0 && history.interpolateAt(latest, out) && out[0] != latest) {
+            // A newer sample may already have replaced the slot: only values
+            // of some intact sample are acceptable.
+            if (out[1] != 2 * out[0] || out[2] != -out[0]) {
+              failure.set("interpolated " + out[0] + ", " + out[1] + ", " + out[2]);
+            }
+          }
+        }
+      }
+    });
+    reader.start();
+    // Timestamps stay exact as floats.
+    for (long t = 1; t < 1 << 20; t++) {
+      history.add(t, sample(t));
+    }
+    running.set(false);
+    reader.join();
+    assertNull(failure.get());
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EncoderPoolTest {
+
+    private static final class RecordingSink implements EncoderPool.Sink<Integer> {
+        private final List<Integer> published = new ArrayList<>();
+        private final CountDownLatch done;
+
+        private RecordingSink(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void publish(Integer encoded) {
+            published.add(encoded);
+            done.countDown();
+        }
+
+        private List<Integer> await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            synchronized (this) {
+                return new ArrayList<>(published);
+            }
+        }
+    }
+
+    /**
+     * Encodes to {@code value} once {@code release} is counted down.
+     */
+    private static EncoderPool.Encoder<Integer> blockedEncoder(final int value, final CountDownLatch release) {
+        return new EncoderPool.Encoder<Integer>() {
+            @Override
+            public Integer encode() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void publishesInSubmissionOrder() throws InterruptedException {
+        EncoderPool pool = new EncoderPool(4);
+        RecordingSink sink = new RecordingSink(4);
+        EncoderPool.Stream<Integer> stream = pool.newStream(4, sink);
+        CountDownLatch[] releases = new CountDownLatch[4];
+        for (int i = 0; i < 4; i++) {
+            releases[i] = new CountDownLatch(1);
+            assertTrue(stream.submit(blockedEncoder(i, releases[i])));
+        }
+        // Finish the frames last to first.
+        for (int i = 3; i >= 0; i--) {
+            releases[i].countDown();
+            Thread.sleep(10);
+        }
+        assertEquals(4, sink.await().size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), sink.await().get(i));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void skipsFramesThatFailedToEncode() throws InterruptedException {
+        EncoderPool pool = new EncoderPool(2);
+        RecordingSink sink = new RecordingSink(2);
+        EncoderPool.Stream<Integer> stream = pool.newStream(4, sink);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(stream.submit(blockedEncoder(0, release)));
+        assertTrue(stream.submit(new EncoderPool.Encoder<Integer>() {
+            @Override
+            public Integer encode() {
+                return null;
+            }
+        }));
+        assertTrue(stream.submit(blockedEncoder(2, release)));
+        release.countDown();
+        List<Integer> published = sink.await();
+        assertEquals(2, published.size());
+        assertEquals(Integer.valueOf(0), published.get(0));
+        assertEquals(Integer.valueOf(2), published.get(1));
+        pool.shutdown();
+    }
+
+    @Test
+    public void dropsFramesWhileWindowIsFull() throws InterruptedException {
+        EncoderPool pool = new EncoderPool(2);
+        RecordingSink sink = new RecordingSink(3);
+        EncoderPool.Stream<Integer> stream = pool.newStream(2, sink);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(stream.submit(blockedEncoder(0, release)));
+        assertTrue(stream.submit(blockedEncoder(1, release)));
+        assertFalse(stream.submit(blockedEncoder(2, release)));
+        assertEquals(1, stream.getDropped());
+        release.countDown();
+        // Slots free up once the window has been published.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!stream.submit(blockedEncoder(3, release))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        List<Integer> published = sink.await();
+        assertEquals(Integer.valueOf(0), published.get(0));
+        assertEquals(Integer.valueOf(1), published.get(1));
+        assertEquals(Integer.valueOf(3), published.get(2));
+        pool.shutdown();
+    }
+
+    @Test
+    public void dropsFramesSubmittedAfterShutdown() throws InterruptedException {
+        EncoderPool pool = new EncoderPool(2);
+        RecordingSink sink = new RecordingSink(1);
+        EncoderPool.Stream<Integer> stream = pool.newStream(2, sink);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(stream.submit(blockedEncoder(0, release)));
+        pool.shutdown();
+        assertFalse(stream.submit(blockedEncoder(1, release)));
+        assertEquals(1, stream.getDropped());
+        // The frame submitted before the shutdown is still published.
+        release.countDown();
+        assertEquals(1, sink.await().size());
+        assertEquals(Integer.valueOf(0), sink.await().get(0));
+    }
+}
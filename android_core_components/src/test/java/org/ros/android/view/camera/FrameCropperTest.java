@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameCropperTest {
+
+    private static void assertRegion(FrameCropper.Region region, int x, int y, int width, int height, int binning) {
+        assertEquals("x", x, region.x);
+        assertEquals("y", y, region.y);
+        assertEquals("width", width, region.width);
+        assertEquals("height", height, region.height);
+        assertEquals("binning", binning, region.binning);
+    }
+
+    @Test
+    public void alignsOffsetsToChromaSamples() {
+        assertRegion(new FrameCropper.Region(3, 5, 10, 10, 1).clip(640, 480), 2, 4, 10, 10, 1);
+    }
+
+    @Test
+    public void zeroSizeExtendsToTheEdge() {
+        assertRegion(new FrameCropper.Region(100, 40, 0, 0, 1).clip(640, 480), 100, 40, 540, 440, 1);
+    }
+
+    @Test
+    public void clipsSizeToTheFrame() {
+        assertRegion(new FrameCropper.Region(600, 0, 100, 1000, 1).clip(640, 480), 600, 0, 40, 480, 1);
+    }
+
+    @Test
+    public void roundsSizeToWholeBinnedChromaSamples() {
+        assertRegion(new FrameCropper.Region(0, 0, 0, 0, 3).clip(640, 480), 0, 0, 636, 480, 3);
+    }
+
+    @Test
+    public void movesOffsetsPastTheEdgeBackInside() {
+        assertRegion(new FrameCropper.Region(1000, 1000, 0, 0, 1).clip(640, 480), 638, 478, 2, 2, 1);
+        assertRegion(new FrameCropper.Region(639, 479, 0, 0, 4).clip(640, 480), 632, 472, 8, 8, 4);
+        assertRegion(new FrameCropper.Region(636, 0, 0, 0, 2).clip(640, 480), 636, 0, 4, 480, 2);
+    }
+
+    @Test
+    public void reducesBinningForTinyFrames() {
+        assertRegion(new FrameCropper.Region(0, 0, 0, 0, 8).clip(8, 4), 0, 0, 8, 4, 2);
+        assertRegion(new FrameCropper.Region(6, 2, 0, 0, 8).clip(8, 4), 4, 0, 4, 4, 2);
+    }
+
+    @Test
+    public void applyCropsAndBinsAtTheEdge() {
+        int width = 16;
+        int height = 8;
+        byte[] frame = new byte[Nv21Downsampler.frameLength(width, height)];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame[y * width + x] = (byte) (10 * x);
+            }
+        }
+        FrameCropper cropper = new FrameCropper(new FrameCropper.Region(100, 100, 0, 0, 2));
+        byte[] output = cropper.apply(frame, width, height);
+        assertEquals(2, cropper.getOutputWidth());
+        assertEquals(2, cropper.getOutputHeight());
+        assertEquals(Nv21Downsampler.frameLength(2, 2), output.length);
+        // Columns 12 to 15: (120 + 130) / 2 and (140 + 150) / 2.
+        assertEquals(125, output[0] & 0xff);
+        assertEquals(145, output[1] & 0xff);
+    }
+
+    @Test
+    public void applyReturnsTheFrameItselfWithoutRegion() {
+        byte[] frame = new byte[Nv21Downsampler.frameLength(8, 8)];
+        FrameCropper cropper = new FrameCropper(new FrameCropper.Region(0, 0, 0, 0, 1));
+        assertSame(frame, cropper.apply(frame, 8, 8));
+        assertEquals(8, cropper.getOutputWidth());
+        assertEquals(8, cropper.getOutputHeight());
+    }
+}
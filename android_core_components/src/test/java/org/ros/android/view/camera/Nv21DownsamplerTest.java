@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ros.android.view.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Nv21DownsamplerTest {
+
+    @Test
+    public void frameLength() {
+        assertEquals(640 * 480 * 3 / 2, Nv21Downsampler.frameLength(640, 480));
+        // Odd dimensions round the chroma plane up.
+        assertEquals(3 * 3 + 2 * 2 * 2, Nv21Downsampler.frameLength(3, 3));
+    }
+
+    @Test
+    public void canHalve() {
+        assertTrue(Nv21Downsampler.canHalve(640, 480));
+        assertTrue(Nv21Downsampler.canHalve(4, 4));
+        assertFalse(Nv21Downsampler.canHalve(2, 4));
+        assertFalse(Nv21Downsampler.canHalve(4, 2));
+        // Half of 6 is odd, which NV21 cannot represent.
+        assertFalse(Nv21Downsampler.canHalve(6, 8));
+        assertFalse(Nv21Downsampler.canHalve(8, 6));
+    }
+
+    @Test
+    public void averagesLumaBlocks() {
+        int width = 4;
+        int height = 4;
+        byte[] source = new byte[Nv21Downsampler.frameLength(width, height)];
+        byte[] luma = {
+                0, 4, (byte) 200, (byte) 200,
+                8, 4, (byte) 255, (byte) 255,
+                10, 10, 1, 2,
+                10, 10, 3, 4};
+        System.arraycopy(luma, 0, source, 0, luma.length);
+        byte[] destination = new byte[Nv21Downsampler.frameLength(2, 2)];
+        Nv21Downsampler.halve(source, width, height, destination);
+        // Rounded to nearest: (0 + 4 + 8 + 4) / 4 = 4, (200 + 200 + 255 + 255) / 4 = 227.5.
+        assertEquals(4, destination[0] & 0xff);
+        assertEquals(228, destination[1] & 0xff);
+        assertEquals(10, destination[2] & 0xff);
+        assertEquals(3, destination[3] & 0xff);
+    }
+
+    @Test
+    public void averagesChromaPairsSeparately() {
+        int width = 8;
+        int height = 8;
+        byte[] source = new byte[Nv21Downsampler.frameLength(width, height)];
+        // V samples at even offsets, U samples at odd offsets.
+        for (int i = width * height; i < source.length; i += 2) {
+            int row = (i - width * height) / width;
+            int column = (i - width * height) % width / 2;
+            source[i] = (byte) (column < 2 ? 100 : 20);
+            source[i + 1] = (byte) (row < 2 ? 50 : 150);
+        }
+        byte[] destination = new byte[Nv21Downsampler.frameLength(4, 4)];
+        Nv21Downsampler.halve(source, width, height, destination);
+        int chroma = 4 * 4;
+        assertEquals(8, destination.length - chroma);
+        assertEquals(100, destination[chroma] & 0xff);
+        assertEquals(50, destination[chroma + 1] & 0xff);
+        assertEquals(20, destination[chroma + 2] & 0xff);
+        assertEquals(50, destination[chroma + 3] & 0xff);
+        assertEquals(100, destination[chroma + 4] & 0xff);
+        assertEquals(150, destination[chroma + 5] & 0xff);
+        assertEquals(20, destination[chroma + 6] & 0xff);
+        assertEquals(150, destination[chroma + 7] & 0xff);
+    }
+
+    @Test
+    public void uniformFrameStaysUniform() {
+        int width = 64;
+        int height = 48;
+        byte[] source = new byte[Nv21Downsampler.frameLength(width, height)];
+        Arrays.fill(source, (byte) 0x80);
+        byte[] destination = new byte[Nv21Downsampler.frameLength(width / 2, height / 2)];
+        Nv21Downsampler.halve(source, width, height, destination);
+        for (byte value : destination) {
+            assertEquals(0x80, value & 0xff);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortDestination() {
+        Nv21Downsampler.halve(new byte[Nv21Downsampler.frameLength(8, 8)], 8, 8,
+                new byte[Nv21Downsampler.frameLength(4, 4) - 1]);
+    }
+}
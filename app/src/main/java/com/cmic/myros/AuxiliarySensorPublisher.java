@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.cmic.myros;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import org.ros.android.SensorClock;
+import org.ros.android.SensorHub;
+import org.ros.android.SensorStream;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sensor_msgs.FluidPressure;
+import sensor_msgs.Imu;
+import sensor_msgs.MagneticField;
+import sensor_msgs.Temperature;
+
+/**
+ * Publishes the magnetometer, barometer, ambient thermometer and the
+ * uncalibrated gyroscope and accelerometer, each only while its topic has
+ * subscribers and only if the device has the sensor:
+ *
+ * <ul>
+ * <li>{@code android/magnetic_field} (sensor_msgs/MagneticField, tesla)</li>
+ * <li>{@code android/barometric_pressure} (sensor_msgs/FluidPressure, pascal)</li>
+ * <li>{@code android/temperature} (sensor_msgs/Temperature, degrees Celsius)</li>
+ * <li>{@code android/imu/gyroscope_uncalibrated} and
+ * {@code android/imu/accelerometer_uncalibrated} (sensor_msgs/Imu without
+ * bias compensation; the fields the sensor does not measure have a
+ * covariance of -1)</li>
+ * </ul>
+ *
+ * <p>
+ * All streams share the {@link SensorHub} thread and recycle their messages,
+ * like {@link ImuPublisher}.
+ */
+public class AuxiliarySensorPublisher extends AbstractNodeMain {
+    private static final String TAG = "AuxiliarySensor";
+    private static final int MAGNETIC_FIELD_PERIOD_US = 20000;
+    private static final int ENVIRONMENT_PERIOD_US = 200000;
+    private static final int INERTIAL_PERIOD_US = 5000;
+    private static final double TESLA_PER_MICROTESLA = 1e-6;
+    private static final double PASCAL_PER_HECTOPASCAL = 100;
+    // A covariance of -1 in the first element marks a field as not measured.
+    private static final double[] UNKNOWN_COVARIANCE = {-1, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final double[] ANGULAR_VELOCITY_COVARIANCE = {0.0025, 0, 0, 0, 0.0025, 0, 0, 0, 0.0025};
+    private static final double[] LINEAR_ACCELERATION_COVARIANCE = {0.01, 0, 0, 0, 0.01, 0, 0, 0, 0.01};
+
+    private final SensorManager sensorManager;
+    private final List<SensorStream<?>> streams = new ArrayList<>();
+    private SensorHub sensorHub;
+    private boolean ownsSensorHub;
+
+    /**
+     * Creates a publisher with a {@link SensorHub} of its own.
+     */
+    public AuxiliarySensorPublisher(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * Creates a publisher receiving samples through a shared hub, which the
+     * caller shuts down.
+     */
+    public AuxiliarySensorPublisher(SensorHub sensorHub) {
+        this.sensorManager = sensorHub.getSensorManager();
+        this.sensorHub = sensorHub;
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of("android_sensors_driver/auxiliarySensorPublisher");
+    }
+
+    @Override
+    public void onStart(ConnectedNode node) {
+        try {
+            if (this.sensorHub == null) {
+                this.sensorHub = new SensorHub(this.sensorManager);
+                this.ownsSensorHub = true;
+            }
+            SensorClock sensorClock = new SensorClock(node);
+            start(node, sensorClock, new SensorStream<MagneticField>(this.sensorHub, Sensor.TYPE_MAGNETIC_FIELD,
+                    MAGNETIC_FIELD_PERIOD_US) {
+                @Override
+                protected std_msgs.Header getHeader(MagneticField message) {
+                    return message.getHeader();
+                }
+
+                @Override
+                protected void fill(MagneticField message, float[] values) {
+                    message.getMagneticField().setX(values[0] * TESLA_PER_MICROTESLA);
+                    message.getMagneticField().setY(values[1] * TESLA_PER_MICROTESLA);
+                    message.getMagneticField().setZ(values[2] * TESLA_PER_MICROTESLA);
+                }
+            }, "android/magnetic_field", MagneticField._TYPE, "/imu");
+            start(node, sensorClock, new SensorStream<FluidPressure>(this.sensorHub, Sensor.TYPE_PRESSURE,
+                    ENVIRONMENT_PERIOD_US) {
+                @Override
+                protected std_msgs.Header getHeader(FluidPressure message) {
+                    return message.getHeader();
+                }
+
+                @Override
+                protected void fill(FluidPressure message, float[] values) {
+                    message.setFluidPressure(values[0] * PASCAL_PER_HECTOPASCAL);
+                }
+            }, "android/barometric_pressure", FluidPressure._TYPE, "/barometer");
+            start(node, sensorClock, new SensorStream<Temperature>(this.sensorHub, Sensor.TYPE_AMBIENT_TEMPERATURE,
+                    ENVIRONMENT_PERIOD_US) {
+                @Override
+                protected std_msgs.Header getHeader(Temperature message) {
+                    return message.getHeader();
+                }
+
+                @Override
+                protected void fill(Temperature message, float[] values) {
+                    message.setTemperature(values[0]);
+                }
+            }, "android/temperature", Temperature._TYPE, "/thermometer");
+            start(node, sensorClock, new SensorStream<Imu>(this.sensorHub, Sensor.TYPE_GYROSCOPE_UNCALIBRATED,
+                    INERTIAL_PERIOD_US) {
+                @Override
+                protected void initialize(Imu imu) {
+                    imu.setOrientationCovariance(UNKNOWN_COVARIANCE);
+                    imu.setAngularVelocityCovariance(ANGULAR_VELOCITY_COVARIANCE);
+                    imu.setLinearAccelerationCovariance(UNKNOWN_COVARIANCE);
+                }
+
+                @Override
+                protected std_msgs.Header getHeader(Imu message) {
+                    return message.getHeader();
+                }
+
+                @Override
+                protected void fill(Imu imu, float[] values) {
+                    imu.getAngularVelocity().setX(values[0]);
+                    imu.getAngularVelocity().setY(values[1]);
+                    imu.getAngularVelocity().setZ(values[2]);
+                }
+            }, "android/imu/gyroscope_uncalibrated", Imu._TYPE, "/imu");
+            start(node, sensorClock, new SensorStream<Imu>(this.sensorHub, Sensor.TYPE_ACCELEROMETER_UNCALIBRATED,
+                    INERTIAL_PERIOD_US) {
+                @Override
+                protected void initialize(Imu imu) {
+                    imu.setOrientationCovariance(UNKNOWN_COVARIANCE);
+                    imu.setAngularVelocityCovariance(UNKNOWN_COVARIANCE);
+                    imu.setLinearAccelerationCovariance(LINEAR_ACCELERATION_COVARIANCE);
+                }
+
+                @Override
+                protected std_msgs.Header getHeader(Imu message) {
+                    return message.getHeader();
+                }
+
+                @Override
+                protected void fill(Imu imu, float[] values) {
+                    imu.getLinearAcceleration().setX(values[0]);
+                    imu.getLinearAcceleration().setY(values[1]);
+                    imu.getLinearAcceleration().setZ(values[2]);
+                }
+            }, "android/imu/accelerometer_uncalibrated", Imu._TYPE, "/imu");
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    private void start(ConnectedNode node, SensorClock sensorClock, SensorStream<?> stream, String topic,
+                       String messageType, String frameId) {
+        if (stream.start(node, sensorClock, topic, messageType, frameId)) {
+            this.streams.add(stream);
+        } else {
+            Log.i(TAG, "No sensor for " + topic);
+        }
+    }
+
+    @Override
+    public void onShutdown(Node node) {
+        for (SensorStream<?> stream : this.streams) {
+            stream.shutdown();
+        }
+        this.streams.clear();
+        if (this.ownsSensorHub) {
+            this.sensorHub.shutdown();
+            this.sensorHub = null;
+            this.ownsSensorHub = false;
+        }
+    }
+}
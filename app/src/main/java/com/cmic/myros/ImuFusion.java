@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.cmic.myros;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Resamples accelerometer, gyroscope and rotation vector readings onto a
+ * common, fixed rate time grid.
+ *
+ * <p>
+ * Raw samples are kept in primitive ring buffers. An output instant is
+ * emitted by {@link #drain} once every sensor has a sample at or after it,
+ * with all vectors linearly interpolated between the samples around it (the
+ * orientation quaternion along the shorter arc, then normalized). Instants
+ * are aligned to multiples of the output period. Instants where a sensor has
+ * no samples within {@link #MAXIMUM_GAP_PERIODS} periods are skipped rather
+ * than bridged, counting in the sensor's own average sampling interval or the
+ * output period, whichever is longer: a sensor slower than the output rate is
+ * interpolated between its regular samples, not treated as stalled. Not
+ * thread-safe: feed and drain it from the sensor thread. Nothing is allocated
+ * after construction.
+ */
+class ImuFusion {
+    static final int DEFAULT_CAPACITY = 64;
+    private static final int MAXIMUM_GAP_PERIODS = 4;
+
+    /**
+     * Receives the resampled readings. The arrays are reused for every call.
+     */
+    interface Sink {
+        /**
+         * @param orientation quaternion as w, x, y, z
+         */
+        void onSample(long timestampNanos, float[] acceleration, float[] angularVelocity, float[] orientation);
+    }
+
+    private static final int READY = 0;
+    private static final int WAIT = 1;
+    private static final int GAP = 2;
+
+    /**
+     * Ring of timestamped samples in increasing time order.
+     */
+    private static final class Channel {
+        private final int capacity;
+        private final int dimensions;
+        private final boolean quaternion;
+        private final long[] times;
+        private final float[] values;
+        private final boolean present;
+        private long written;
+        private long cursor;
+        private long gapEnd;
+        // Running average of the sampling interval, excluding gaps.
+        private long intervalNanos;
+
+        private Channel(boolean present, int capacity, int dimensions, boolean quaternion) {
+            this.present = present;
+            this.capacity = capacity;
+            this.dimensions = dimensions;
+            this.quaternion = quaternion;
+            times = new long[present ? capacity : 1];
+            values = new float[present ? dimensions * capacity : dimensions];
+        }
+
+        private void clear() {
+            written = 0;
+            cursor = 0;
+            intervalNanos = 0;
+        }
+
+        private void add(long time, float[] sample) {
+            if (written > 0) {
+                long interval = time - times[(int) ((written - 1) % capacity)];
+                if (interval <= 0) {
+                    return;
+                }
+                if (intervalNanos == 0) {
+                    intervalNanos = interval;
+                } else if (interval <= MAXIMUM_GAP_PERIODS * intervalNanos) {
+                    intervalNanos += (interval - intervalNanos) >> 3;
+                }
+            }
+            int slot = (int) (written % capacity);
+            times[slot] = time;
+            System.arraycopy(sample, 0, values, dimensions * slot, dimensions);
+            written++;
+        }
+
+        /**
+         * @return the longest distance between two samples that is still
+         *     interpolated rather than skipped as a gap
+         */
+        private long maximumGapNanos(long outputPeriodNanos) {
+            return MAXIMUM_GAP_PERIODS * Math.max(outputPeriodNanos, intervalNanos);
+        }
+
+        private long oldestTime() {
+            return times[(int) (Math.max(0, written - capacity) % capacity)];
+        }
+
+        /**
+         * Interpolates the channel at {@code time} into {@code out}.
+         *
+         * @return {@link #READY}, {@link #WAIT} if {@code time} is past the
+         *     newest sample, or {@link #GAP} (with {@link #gapEnd} set) if
+         *     the samples around it are too far apart
+         */
+        private int interpolate(long time, long maximumGapNanos, float[] out) {
+            if (written == 0) {
+                return WAIT;
+            }
+            cursor = Math.max(cursor, Math.max(0, written - capacity));
+            while (cursor + 1 < written && times[(int) ((cursor + 1) % capacity)] <= time) {
+                cursor++;
+            }
+            int before = (int) (cursor % capacity);
+            if (times[before] == time) {
+                System.arraycopy(values, dimensions * before, out, 0, dimensions);
+                return READY;
+            }
+            if (cursor + 1 >= written) {
+                return WAIT;
+            }
+            int after = (int) ((cursor + 1) % capacity);
+            if (times[after] - times[before] > maximumGapNanos) {
+                gapEnd = times[after];
+                return GAP;
+            }
+            float fraction = (float) (time - times[before]) / (times[after] - times[before]);
+            int start = dimensions * before;
+            int end = dimensions * after;
+            float sign = 1;
+            if (quaternion) {
+                // q and -q are the same rotation: take the shorter arc.
+                float dot = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    dot += values[start + i] * values[end + i];
+                }
+                sign = dot < 0 ? -1 : 1;
+            }
+            float norm = 0;
+            for (int i = 0; i < dimensions; i++) {
+                float first = values[start + i];
+                out[i] = first + (sign * values[end + i] - first) * fraction;
+                norm += out[i] * out[i];
+            }
+            if (quaternion && norm > 0) {
+                float scale = (float) (1 / Math.sqrt(norm));
+                for (int i = 0; i < dimensions; i++) {
+                    out[i] *= scale;
+                }
+            }
+            return READY;
+        }
+    }
+
+    private final Channel accelerometer;
+    private final Channel gyroscope;
+    private final Channel rotation;
+    private final Channel[] channels;
+    private final Sink sink;
+    private final long periodNanos;
+    private final float[] acceleration = new float[3];
+    private final float[] angularVelocity = new float[3];
+    private final float[] orientation = new float[4];
+    private long nextNanos;
+    private long instantsSkipped;
+
+    /**
+     * @param rate output rate in Hz
+     * @param capacity samples kept per sensor, which must cover the longest
+     *     time one sensor's samples can arrive ahead of another's, e.g. the
+     *     batching latency
+     * @param hasAccelerometer {@code false} to emit zero acceleration
+     * @param hasGyroscope {@code false} to emit zero angular velocity
+     * @param hasRotation {@code false} to emit a zero orientation
+     */
+    ImuFusion(double rate, int capacity, boolean hasAccelerometer, boolean hasGyroscope, boolean hasRotation,
+              Sink sink) {
+        Preconditions.checkArgument(rate > 0 && capacity >= 2);
+        Preconditions.checkArgument(hasAccelerometer || hasGyroscope || hasRotation);
+        this.periodNanos = (long) (1e9 / rate);
+        this.accelerometer = new Channel(hasAccelerometer, capacity, 3, false);
+        this.gyroscope = new Channel(hasGyroscope, capacity, 3, false);
+        this.rotation = new Channel(hasRotation, capacity, 4, true);
+        this.channels = new Channel[]{accelerometer, gyroscope, rotation};
+        this.sink = sink;
+    }
+
+    /**
+     * Forgets all samples, e.g. after the sensors were suspended.
+     */
+    void reset() {
+        for (Channel channel : channels) {
+            channel.clear();
+        }
+        nextNanos = 0;
+    }
+
+    void addAcceleration(long timestampNanos, float[] values) {
+        accelerometer.add(timestampNanos, values);
+    }
+
+    void addAngularVelocity(long timestampNanos, float[] values) {
+        gyroscope.add(timestampNanos, values);
+    }
+
+    /**
+     * @param quaternion w, x, y, z
+     */
+    void addOrientation(long timestampNanos, float[] quaternion) {
+        rotation.add(timestampNanos, quaternion);
+    }
+
+    /**
+     * @return the number of output instants skipped because a sensor stalled
+     */
+    long getInstantsSkipped() {
+        return instantsSkipped;
+    }
+
+    /**
+     * Emits the output instants covered by every sensor, in order.
+     *
+     * @param maximum maximum number of instants to emit
+     * @return the number of instants emitted
+     */
+    int drain(int maximum) {
+        long oldest = Long.MIN_VALUE;
+        for (Channel channel : channels) {
+            if (channel.present) {
+                if (channel.written == 0) {
+                    return 0;
+                }
+                oldest = Math.max(oldest, channel.oldestTime());
+            }
+        }
+        // Start at the first instant all rings still cover.
+        if (nextNanos < oldest) {
+            long next = align(oldest);
+            if (nextNanos > 0) {
+                instantsSkipped += (next - nextNanos) / periodNanos;
+            }
+            nextNanos = next;
+        }
+        int emitted = 0;
+        while (emitted < maximum) {
+            int accelerometerState = accelerometer.present ? accelerometer.interpolate(nextNanos,
+                    accelerometer.maximumGapNanos(periodNanos), acceleration) : READY;
+            int gyroscopeState = gyroscope.present ? gyroscope.interpolate(nextNanos,
+                    gyroscope.maximumGapNanos(periodNanos), angularVelocity) : READY;
+            int rotationState = rotation.present ? rotation.interpolate(nextNanos,
+                    rotation.maximumGapNanos(periodNanos), orientation) : READY;
+            if (accelerometerState == WAIT || gyroscopeState == WAIT || rotationState == WAIT) {
+                break;
+            }
+            if (accelerometerState == READY && gyroscopeState == READY && rotationState == READY) {
+                sink.onSample(nextNanos, acceleration, angularVelocity, orientation);
+                nextNanos += periodNanos;
+                emitted++;
+                continue;
+            }
+            // Resume at the first instant after the stall.
+            long resume = Math.max(accelerometerState == GAP ? accelerometer.gapEnd : 0,
+                    gyroscopeState == GAP ? gyroscope.gapEnd : 0);
+            resume = Math.max(resume, rotationState == GAP ? rotation.gapEnd : 0);
+            long next = Math.max(nextNanos + periodNanos, align(resume));
+            instantsSkipped += (next - nextNanos) / periodNanos;
+            nextNanos = next;
+        }
+        return emitted;
+    }
+
+    private long align(long timeNanos) {
+        return (timeNanos + periodNanos - 1) / periodNanos * periodNanos;
+    }
+}
@@ -31,163 +31,434 @@ package com.cmic.myros;
 
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.os.Looper;
-import android.util.Log;
-
+import android.os.Handler;
+
+import org.ros.android.DiagnosticsPublisher;
+import org.ros.android.MessageRing;
+import org.ros.android.Parameters;
+import org.ros.android.SensorClock;
+import org.ros.android.SensorHistory;
+import org.ros.android.SensorHub;
+import org.ros.android.SensorStats;
+import org.ros.android.SubscriberDemand;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
 import org.ros.node.NodeMain;
+import org.ros.message.MessageListener;
 import org.ros.node.topic.Publisher;
-
-import java.util.List;
+import org.ros.node.topic.Subscriber;
 
 import sensor_msgs.Imu;
+import std_msgs.Empty;
 
 /**
  * @author chadrockey@gmail.com (Chad Rockey)
  * @author axelfurlan@gmail.com (Axel Furlan)
  */
 public class ImuPublisher implements NodeMain {
-    private ImuThread imuThread;
+    // Covariances are constant, so every message shares the same arrays.
+    private static final double[] LINEAR_ACCELERATION_COVARIANCE = {0.01, 0, 0, 0, 0.01, 0, 0, 0, 0.01};// TODO Make Parameter
+    private static final double[] ANGULAR_VELOCITY_COVARIANCE = {0.0025, 0, 0, 0, 0.0025, 0, 0, 0, 0.0025};// TODO Make Parameter
+    private static final double[] ORIENTATION_COVARIANCE = {0.001, 0, 0, 0, 0.001, 0, 0, 0, 0.001};// TODO Make Parameter
+    private static final String FRAME_ID = "/imu";// TODO Make parameter
+    private static final double DEFAULT_RATE = 100;
+    // Default anti-aliasing cutoff, relative to ~imu_rate: just below the
+    // output's Nyquist frequency.
+    private static final double DEFAULT_CUTOFF_RATIO = 0.4;
+    private static final int DEFAULT_FILTER_ORDER = 4;
+    private static final int SAMPLING_PERIOD_US = 5000;
+    // Batched samples are published a few at a time, at CATCH_UP times
+    // ~imu_rate, to leave rosjava's writer time to empty its outgoing queue.
+    // This is best effort: there is no feedback from the writer, so if it
+    // falls behind, the queue still drops the oldest messages.
+    private static final int BURST = MessageRing.PUBLISHER_QUEUE_CAPACITY / 2;
+    private static final double CATCH_UP = 4;
+    // About two seconds of the fastest sensor (up to 1 kHz).
+    private static final int HISTORY_CAPACITY = 2048;
+    private static final double DEFAULT_GAP_PERIODS = 3;
+
     private SensorListener sensorListener;
     private SensorManager sensorManager;
+    private SensorHub sensorHub;
+    private boolean ownsSensorHub;
     private Publisher<Imu> publisher;
     private ConnectedNode connectedNode;
+    private SubscriberDemand imuDemand;
+    private volatile SensorRegistrations sensorRegistrations;
+    private DiagnosticsPublisher diagnosticsPublisher;
+    private int batchLatencyUs;
+    // Guarded by this.
+    private int historyUsers;
+
+    private final SensorHistory accelerationHistory = new SensorHistory(HISTORY_CAPACITY, 3, false);
+    private final SensorHistory angularVelocityHistory = new SensorHistory(HISTORY_CAPACITY, 3, false);
+    private final SensorHistory orientationHistory = new SensorHistory(HISTORY_CAPACITY, 4, true);
+
+    private SensorStats accelerationStats;
+    private SensorStats angularVelocityStats;
+    private SensorStats orientationStats;
+
+    /**
+     * Registers the sensors with the hub while android/imu has subscribers or
+     * the histories are in use, and lets the listener publish only in the
+     * first case. Registrations are only changed on the hub's thread, so they
+     * never race with the samples they deliver.
+     */
+    private class SensorRegistrations implements SubscriberDemand.Listener {
+        private SensorHub.Registration accelRegistration;
+        private SensorHub.Registration gyroRegistration;
+        private SensorHub.Registration quatRegistration;
+        private boolean registered;
+        private boolean hasDemand;
+
+        private final Runnable updateStep = new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        };
+
+        @Override
+        public void onDemandChanged(final boolean hasDemand) {
+            sensorHub.getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    SensorRegistrations.this.hasDemand = hasDemand;
+                    update();
+                }
+            });
+        }
 
-    private long mEstimatedSensorRate = 0; // ns
-    private long mPrevTimestamp = 0; // ns
-
-    private class ImuThread extends Thread {
-        private final SensorManager sensorManager;
-        private SensorListener sensorListener;
-        private Looper threadLooper;
-
-        private final Sensor accelSensor;
-        private final Sensor gyroSensor;
-        private final Sensor quatSensor;
+        /**
+         * Applies a change of the number of history users.
+         */
+        private void refresh() {
+            sensorHub.getHandler().post(this.updateStep);
+        }
 
-        private ImuThread(SensorManager sensorManager, SensorListener sensorListener) {
-            this.sensorManager = sensorManager;
-            this.sensorListener = sensorListener;
-            this.accelSensor = this.sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            this.gyroSensor = this.sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
-            this.quatSensor = this.sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        private void update() {
+            boolean needed = this.hasDemand || hasHistoryUsers();
+            if (needed && !this.registered) {
+                register();
+            } else if (!needed && this.registered) {
+                unregister();
+            }
+            if (sensorListener.isPublishing() != this.hasDemand) {
+                // Start resampling from fresh samples.
+                sensorListener.reset();
+                sensorListener.setPublishing(this.hasDemand);
+            }
         }
 
+        private void register() {
+            unregister();
+            this.registered = true;
+            sensorListener.reset();
+            accelerationStats.reset();
+            angularVelocityStats.reset();
+            orientationStats.reset();
+            setStatsActive(true);
+            // With a report latency, the sensor hub queues samples in its FIFO
+            // and the application processor only wakes up once per batch.
+            accelRegistration = sensorHub.register(Sensor.TYPE_ACCELEROMETER, SAMPLING_PERIOD_US, batchLatencyUs, sensorListener);
+            gyroRegistration = sensorHub.register(Sensor.TYPE_GYROSCOPE, SAMPLING_PERIOD_US, batchLatencyUs, sensorListener);
+            quatRegistration = sensorHub.register(Sensor.TYPE_ROTATION_VECTOR, SensorManager.SENSOR_DELAY_FASTEST, batchLatencyUs, sensorListener);
+        }
 
-        public void run() {
-            Looper.prepare();
-            this.threadLooper = Looper.myLooper();
-            this.sensorManager.registerListener(this.sensorListener, this.accelSensor, 5000);
-            this.sensorManager.registerListener(this.sensorListener, this.gyroSensor, 5000);
-            this.sensorManager.registerListener(this.sensorListener, this.quatSensor, SensorManager.SENSOR_DELAY_FASTEST);
-            Looper.loop();
+        private void unregister() {
+            this.registered = false;
+            setStatsActive(false);
+            sensorHub.unregister(accelRegistration);
+            sensorHub.unregister(gyroRegistration);
+            sensorHub.unregister(quatRegistration);
+            accelRegistration = null;
+            gyroRegistration = null;
+            quatRegistration = null;
         }
 
+        private void setStatsActive(boolean active) {
+            accelerationStats.setActive(active);
+            angularVelocityStats.setActive(active);
+            orientationStats.setActive(active);
+        }
 
-        public void shutdown() {
-            this.sensorManager.unregisterListener(this.sensorListener);
-            if (this.threadLooper != null) {
-                this.threadLooper.quit();
-            }
+        private void flush() {
+            sensorHub.getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    sensorHub.flush(accelRegistration);
+                    sensorHub.flush(gyroRegistration);
+                    sensorHub.flush(quatRegistration);
+                }
+            });
         }
     }
 
-    private void updateSensorRate(SensorEvent event) {
-
-//        long diff = event.timestamp - mPrevTimestamp;
-//        mEstimatedSensorRate += (diff - mEstimatedSensorRate) >> 3;
-//        Log.e("IMU事件帧率:",1e9f/((float) mEstimatedSensorRate)+" hz ");
-//        mPrevTimestamp = event.timestamp;
+    private void updateSensorRate(int type, long timestamp) {
+        SensorStats stats = type == Sensor.TYPE_ACCELEROMETER ? accelerationStats
+                : type == Sensor.TYPE_GYROSCOPE ? angularVelocityStats
+                : type == Sensor.TYPE_ROTATION_VECTOR ? orientationStats : null;
+        if (stats != null) {
+            stats.record(timestamp, SensorClock.now());
+        }
     }
 
-    private class SensorListener implements SensorEventListener {
+    /**
+     * Fills recycled messages in place: onSensorChanged allocates nothing and
+     * does not log, so that it keeps up with sensors running at hundreds of Hz.
+     *
+     * <p>
+     * Readings go through {@link ImuFusion}, which emits accelerometer,
+     * gyroscope and rotation vector interpolated to the same instant at
+     * {@code ~imu_rate}. Accelerometer and gyroscope first pass a
+     * {@link LowPassFilter} at {@code ~imu_cutoff} Hz, so that vibration above
+     * the output's Nyquist frequency is removed rather than aliased into the
+     * resampled stream. Filtered samples are stamped back by the filter's
+     * group delay, so that they line up with the unfiltered rotation vector,
+     * which is fused by the sensor hub and not filtered again. The histories
+     * keep the raw readings at their own times. Messages are stamped with the
+     * sensor time, mapped into ROS time by a {@link SensorClock} (event
+     * timestamps are on the
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()} clock), so batched
+     * samples keep their own times.
+     */
+    private class SensorListener implements SensorHub.Sink, ImuFusion.Sink {
+
+        private final MessageRing<Imu> messages;
+        private final SensorClock sensorClock;
+        private final ImuFusion fusion;
+        private final boolean batching;
+        private final long burstIntervalMillis;
+        private final Handler handler;
+        private boolean drainScheduled;
+        // Samples only go into the histories while android/imu has no
+        // subscribers.
+        private boolean publishing;
+
+        private final LowPassFilter accelFilter;
+        private final LowPassFilter gyroFilter;
+        private final float[] quaternion = new float[4];
+        private final float[] filtered = new float[3];
+
+        private final Runnable drainStep = new Runnable() {
+            @Override
+            public void run() {
+                if (fusion.drain(BURST) == BURST) {
+                    handler.postDelayed(this, burstIntervalMillis);
+                } else {
+                    drainScheduled = false;
+                }
+            }
+        };
+
+        private SensorListener(Publisher<Imu> publisher, SensorClock sensorClock, Handler handler, double rate,
+                               boolean batching, int capacity, boolean hasAccel, boolean hasGyro, boolean hasQuat,
+                               double cutoff, int filterOrder) {
+            this.messages = new MessageRing<>(publisher, new MessageRing.Initializer<Imu>() {
+                @Override
+                public void initialize(Imu imu) {
+                    imu.setLinearAccelerationCovariance(LINEAR_ACCELERATION_COVARIANCE);
+                    imu.setAngularVelocityCovariance(ANGULAR_VELOCITY_COVARIANCE);
+                    imu.setOrientationCovariance(ORIENTATION_COVARIANCE);
+                    imu.getHeader().setFrameId(FRAME_ID);
+                }
+            });
+            this.sensorClock = sensorClock;
+            this.handler = handler;
+            this.fusion = new ImuFusion(rate, capacity, hasAccel, hasGyro, hasQuat, this);
+            this.batching = batching;
+            this.burstIntervalMillis = Math.max(1, Math.round(1000 * BURST / (CATCH_UP * rate)));
+            this.accelFilter = cutoff > 0 ? new LowPassFilter(3, cutoff, filterOrder) : null;
+            this.gyroFilter = cutoff > 0 ? new LowPassFilter(3, cutoff, filterOrder) : null;
+        }
 
-        private Publisher<Imu> publisher;
+        private boolean isPublishing() {
+            return this.publishing;
+        }
 
-        private boolean hasAccel;
-        private boolean hasGyro;
-        private boolean hasQuat;
+        private void setPublishing(boolean publishing) {
+            this.publishing = publishing;
+        }
 
-        private long accelTime;
-        private long gyroTime;
-        private long quatTime;
+        // Forget partial samples gathered before the sensors were suspended.
+        private void reset() {
+            this.fusion.reset();
+            if (this.accelFilter != null) {
+                this.accelFilter.reset();
+                this.gyroFilter.reset();
+            }
+            this.handler.removeCallbacks(this.drainStep);
+            this.drainScheduled = false;
+        }
 
-        private Imu imu;
+        @Override
+        public void onSample(int type, long timestamp, float[] values) {
+            updateSensorRate(type, timestamp);
+            if (type == Sensor.TYPE_ACCELEROMETER) {
+                accelerationHistory.add(timestamp, values);
+                if (this.publishing) {
+                    float[] filtered = lowPass(this.accelFilter, timestamp, values);
+                    this.fusion.addAcceleration(timestamp - delayOf(this.accelFilter), filtered);
+                }
+            } else if (type == Sensor.TYPE_GYROSCOPE) {
+                angularVelocityHistory.add(timestamp, values);
+                if (this.publishing) {
+                    float[] filtered = lowPass(this.gyroFilter, timestamp, values);
+                    this.fusion.addAngularVelocity(timestamp - delayOf(this.gyroFilter), filtered);
+                }
+            } else if (type == Sensor.TYPE_ROTATION_VECTOR) {
+                SensorManager.getQuaternionFromVector(this.quaternion, values);
+                orientationHistory.add(timestamp, this.quaternion);
+                if (this.publishing) {
+                    this.fusion.addOrientation(timestamp, this.quaternion);
+                }
+            } else {
+                return;
+            }
+            if (!this.publishing) {
+                return;
+            }
+            if (!this.batching) {
+                this.fusion.drain(Integer.MAX_VALUE);
+            } else if (!this.drainScheduled) {
+                this.drainScheduled = true;
+                this.handler.post(this.drainStep);
+            }
+        }
 
-        private SensorListener(Publisher<Imu> publisher, boolean hasAccel, boolean hasGyro, boolean hasQuat) {
-            this.publisher = publisher;
-            this.hasAccel = hasAccel;
-            this.hasGyro = hasGyro;
-            this.hasQuat = hasQuat;
-            this.accelTime = 0;
-            this.gyroTime = 0;
-            this.quatTime = 0;
-            this.imu = this.publisher.newMessage();
+        private float[] lowPass(LowPassFilter filter, long timestamp, float[] values) {
+            if (filter == null) {
+                return values;
+            }
+            filter.filter(timestamp, values, this.filtered);
+            return this.filtered;
         }
 
-        //	@Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        private long delayOf(LowPassFilter filter) {
+            return filter == null ? 0 : filter.getDelayNanos();
         }
 
-        //	@Override
-        public void onSensorChanged(SensorEvent event) {
-//            updateSensorRate(event);
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                this.imu.getLinearAcceleration().setX(event.values[0]);
-                this.imu.getLinearAcceleration().setY(event.values[1]);
-                this.imu.getLinearAcceleration().setZ(event.values[2]);
+        @Override
+        public void onSample(long timestampNanos, float[] acceleration, float[] angularVelocity, float[] orientation) {
+            Imu imu = this.messages.current();
+            imu.getLinearAcceleration().setX(acceleration[0]);
+            imu.getLinearAcceleration().setY(acceleration[1]);
+            imu.getLinearAcceleration().setZ(acceleration[2]);
+            imu.getAngularVelocity().setX(angularVelocity[0]);
+            imu.getAngularVelocity().setY(angularVelocity[1]);
+            imu.getAngularVelocity().setZ(angularVelocity[2]);
+            imu.getOrientation().setW(orientation[0]);
+            imu.getOrientation().setX(orientation[1]);
+            imu.getOrientation().setY(orientation[2]);
+            imu.getOrientation().setZ(orientation[3]);
+            this.sensorClock.toRosTime(timestampNanos, imu.getHeader().getStamp());
+            this.messages.publish();
+        }
+    }
 
-                double[] tmpCov = {0.01, 0, 0, 0, 0.01, 0, 0, 0, 0.01};// TODO Make Parameter
-                this.imu.setLinearAccelerationCovariance(tmpCov);
-                this.accelTime = event.timestamp;
-            } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-                this.imu.getAngularVelocity().setX(event.values[0]);
-                this.imu.getAngularVelocity().setY(event.values[1]);
-                this.imu.getAngularVelocity().setZ(event.values[2]);
-                double[] tmpCov = {0.0025, 0, 0, 0, 0.0025, 0, 0, 0, 0.0025};// TODO Make Parameter
-                this.imu.setAngularVelocityCovariance(tmpCov);
-                this.gyroTime = event.timestamp;
-            } else if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-                float[] quaternion = new float[4];
-                SensorManager.getQuaternionFromVector(quaternion, event.values);
-                this.imu.getOrientation().setW(quaternion[0]);
-                this.imu.getOrientation().setX(quaternion[1]);
-                this.imu.getOrientation().setY(quaternion[2]);
-                this.imu.getOrientation().setZ(quaternion[3]);
-                double[] tmpCov = {0.001, 0, 0, 0, 0.001, 0, 0, 0, 0.001};// TODO Make Parameter
-                this.imu.setOrientationCovariance(tmpCov);
-                this.quatTime = event.timestamp;
-            }
 
-            // Currently storing event times in case I filter them in the future.  Otherwise they are used to determine if all sensors have reported.
-            if ((this.accelTime != 0 || !this.hasAccel) && (this.gyroTime != 0 || !this.hasGyro) && (this.quatTime != 0 || !this.hasQuat)) {
-                // Convert event.timestamp (nanoseconds uptime) into system time, use that as the header stamp
-                //long time_delta_millis = System.currentTimeMillis() - SystemClock.uptimeMillis();
-                //this.imu.getHeader().setStamp(Time.fromMillis(time_delta_millis + event.timestamp/1000000));
-                this.imu.getHeader().setStamp(connectedNode.getCurrentTime());
-                this.imu.getHeader().setFrameId("/imu");// TODO Make parameter
-                Log.e("Imu","发布"+event.values[0]);
-                publisher.publish(this.imu);
+    /**
+     * Creates a publisher with a {@link SensorHub} of its own.
+     */
+    public ImuPublisher(SensorManager manager) {
+        this.sensorManager = manager;
+    }
 
-                // Create a new message
-                this.imu = this.publisher.newMessage();
+    /**
+     * Creates a publisher receiving samples through a shared hub, which the
+     * caller shuts down.
+     */
+    public ImuPublisher(SensorHub sensorHub) {
+        this.sensorManager = sensorHub.getSensorManager();
+        this.sensorHub = sensorHub;
+    }
 
-                // Reset times
-                this.accelTime = 0;
-                this.gyroTime = 0;
-                this.quatTime = 0;
+    /**
+     * Asks the sensors to deliver the samples waiting in their FIFOs now,
+     * e.g. before a recording is stopped. Also triggered by any message on
+     * {@code android/imu/flush}.
+     */
+    public void flush() {
+        SensorRegistrations registrations = this.sensorRegistrations;
+        if (registrations != null) {
+            registrations.flush();
+        }
+    }
+
+    /**
+     * Keeps the sensors running for in-process readers of the histories, also
+     * while android/imu has no subscribers. Every call must be matched by a
+     * call to {@link #releaseHistory()}. May be called before the node starts.
+     */
+    public void acquireHistory() {
+        synchronized (this) {
+            this.historyUsers++;
+        }
+        refreshRegistrations();
+    }
+
+    public void releaseHistory() {
+        synchronized (this) {
+            if (this.historyUsers == 0) {
+                throw new IllegalStateException("releaseHistory() without acquireHistory().");
             }
+            this.historyUsers--;
         }
+        refreshRegistrations();
     }
 
+    private synchronized boolean hasHistoryUsers() {
+        return this.historyUsers > 0;
+    }
 
-    public ImuPublisher(SensorManager manager) {
-        this.sensorManager = manager;
+    private void refreshRegistrations() {
+        SensorRegistrations registrations = this.sensorRegistrations;
+        if (registrations != null) {
+            registrations.refresh();
+        }
+    }
+
+    /**
+     * @return the latest raw accelerometer samples (m/s^2), timestamped on the
+     *     {@link android.os.SystemClock#elapsedRealtimeNanos()} clock, for
+     *     in-process consumers on any thread. Samples are only recorded while
+     *     android/imu has subscribers or {@link #acquireHistory()} is in
+     *     effect.
+     */
+    public SensorHistory getAccelerationHistory() {
+        return accelerationHistory;
+    }
+
+    /**
+     * @return the latest raw gyroscope samples (rad/s)
+     */
+    public SensorHistory getAngularVelocityHistory() {
+        return angularVelocityHistory;
+    }
+
+    /**
+     * @return the latest rotation vector samples as quaternions (w, x, y, z)
+     */
+    public SensorHistory getOrientationHistory() {
+        return orientationHistory;
+    }
+
+    /**
+     * @return delivery statistics of the accelerometer, also published on
+     *     {@code /diagnostics}; {@code null} before the node started
+     */
+    public SensorStats getAccelerationStats() {
+        return accelerationStats;
+    }
+
+    public SensorStats getAngularVelocityStats() {
+        return angularVelocityStats;
+    }
+
+    public SensorStats getOrientationStats() {
+        return orientationStats;
     }
 
     public GraphName getDefaultNodeName() {
@@ -201,30 +472,74 @@ public class ImuPublisher implements NodeMain {
         try {
             this.connectedNode = node;
             this.publisher = node.newPublisher("android/imu", "sensor_msgs/Imu");
+            if (this.sensorHub == null) {
+                this.sensorHub = new SensorHub(this.sensorManager);
+                this.ownsSensorHub = true;
+            }
             // 	Determine if we have the various needed sensors
-            boolean hasAccel = false;
-            boolean hasGyro = false;
-            boolean hasQuat = false;
-
-            List<Sensor> accelList = this.sensorManager.getSensorList(Sensor.TYPE_ACCELEROMETER);
-
-            if (accelList.size() > 0) {
-                hasAccel = true;
+            boolean hasAccel = this.sensorHub.hasSensor(Sensor.TYPE_ACCELEROMETER);
+            boolean hasGyro = this.sensorHub.hasSensor(Sensor.TYPE_GYROSCOPE);
+            boolean hasQuat = this.sensorHub.hasSensor(Sensor.TYPE_ROTATION_VECTOR);
+
+            this.imuDemand = new SubscriberDemand(node);
+            this.imuDemand.watch(publisher);
+            double rate = Parameters.getDouble(node.getParameterTree(), "~imu_rate", DEFAULT_RATE);
+            if (rate <= 0) {
+                rate = DEFAULT_RATE;
             }
-
-            List<Sensor> gyroList = this.sensorManager.getSensorList(Sensor.TYPE_GYROSCOPE);
-            if (gyroList.size() > 0) {
-                hasGyro = true;
+            // Anti-aliasing: ~imu_cutoff is the low-pass cutoff in Hz applied
+            // before resampling to ~imu_rate, 0 to resample the raw readings.
+            double cutoff = Parameters.getDouble(node.getParameterTree(), "~imu_cutoff", DEFAULT_CUTOFF_RATIO * rate);
+            int filterOrder = node.getParameterTree().getInteger("~imu_filter_order", DEFAULT_FILTER_ORDER);
+            if (filterOrder <= 0 || filterOrder % 2 != 0) {
+                filterOrder = DEFAULT_FILTER_ORDER;
             }
-
-            List<Sensor> quatList = this.sensorManager.getSensorList(Sensor.TYPE_ROTATION_VECTOR);
-            if (quatList.size() > 0) {
-                hasQuat = true;
+            // Opt-in hardware batching: ~batch_latency is the longest time in
+            // seconds samples may wait in the sensor FIFO, 0 to deliver them
+            // right away.
+            this.batchLatencyUs =
+                    (int) Math.max(0, Parameters.getDouble(node.getParameterTree(), "~batch_latency", 0) * 1e6);
+            // Room for a whole batch of the fastest sensor (up to 1 kHz).
+            int capacity = ImuFusion.DEFAULT_CAPACITY + this.batchLatencyUs / 1000;
+            // Intervals longer than ~gap_periods sampling periods count as gaps.
+            double gapPeriods = Parameters.getDouble(node.getParameterTree(), "~gap_periods", DEFAULT_GAP_PERIODS);
+            if (gapPeriods <= 1) {
+                gapPeriods = DEFAULT_GAP_PERIODS;
             }
-
-            this.sensorListener = new SensorListener(publisher, hasAccel, hasGyro, hasQuat);
-            this.imuThread = new ImuThread(this.sensorManager, sensorListener);
-            this.imuThread.start();
+            long samplingPeriodNanos = SAMPLING_PERIOD_US * 1000L;
+            this.accelerationStats = new SensorStats("android/imu: accelerometer", samplingPeriodNanos, gapPeriods);
+            this.angularVelocityStats = new SensorStats("android/imu: gyroscope", samplingPeriodNanos, gapPeriods);
+            // The rotation vector runs as fast as it can: gaps are measured
+            // against its own average interval.
+            this.orientationStats = new SensorStats("android/imu: rotation vector", 0, gapPeriods);
+            // Idle until the sensors are registered.
+            this.accelerationStats.setActive(false);
+            this.angularVelocityStats.setActive(false);
+            this.orientationStats.setActive(false);
+            this.diagnosticsPublisher = new DiagnosticsPublisher(node);
+            if (hasAccel) {
+                this.diagnosticsPublisher.addSource(this.accelerationStats);
+            }
+            if (hasGyro) {
+                this.diagnosticsPublisher.addSource(this.angularVelocityStats);
+            }
+            if (hasQuat) {
+                this.diagnosticsPublisher.addSource(this.orientationStats);
+            }
+            this.sensorListener = new SensorListener(publisher, new SensorClock(node), this.sensorHub.getHandler(),
+                    rate, this.batchLatencyUs > 0, capacity, hasAccel, hasGyro, hasQuat, cutoff, filterOrder);
+            // Sensors are only registered while android/imu has subscribers
+            // or the histories are in use.
+            this.sensorRegistrations = new SensorRegistrations();
+            this.imuDemand.addListener(this.sensorRegistrations);
+            this.sensorRegistrations.refresh();
+            Subscriber<Empty> flushSubscriber = node.newSubscriber("android/imu/flush", Empty._TYPE);
+            flushSubscriber.addMessageListener(new MessageListener<Empty>() {
+                @Override
+                public void onNewMessage(Empty message) {
+                    flush();
+                }
+            });
         } catch (Exception e) {
             if (node != null) {
                 e.printStackTrace();
@@ -237,13 +552,36 @@ public class ImuPublisher implements NodeMain {
 
     //@Override
     public void onShutdown(Node arg0) {
-        this.imuThread.shutdown();
-
-        try {
-            this.imuThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        // onStart may have failed half way: only tear down what exists.
+        if (this.imuDemand != null) {
+            this.imuDemand.shutdown();
         }
+        if (this.diagnosticsPublisher != null) {
+            this.diagnosticsPublisher.shutdown();
+        }
+        final SensorRegistrations registrations = this.sensorRegistrations;
+        final SensorHub hub = this.sensorHub;
+        final boolean ownsHub = this.ownsSensorHub;
+        this.sensorRegistrations = null;
+        if (ownsHub) {
+            this.sensorHub = null;
+            this.ownsSensorHub = false;
+        }
+        if (hub == null) {
+            return;
+        }
+        // Registrations are only touched on the hub's thread.
+        hub.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (registrations != null) {
+                    registrations.unregister();
+                }
+                if (ownsHub) {
+                    hub.shutdown();
+                }
+            }
+        });
     }
 
     //@Override
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.cmic.myros;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Butterworth low-pass filter for vectors sampled at a roughly constant but
+ * unknown rate, as a cascade of biquad sections.
+ *
+ * <p>
+ * The input rate is estimated from the timestamps, and the coefficients are
+ * designed again whenever the estimate drifts by more than
+ * {@link #REDESIGN_TOLERANCE}. While the input is too slow for the cutoff
+ * (below {@link #MINIMUM_RATE_RATIO} times the cutoff) samples pass
+ * unchanged. After a reset or a gap the state starts at the steady state of
+ * the next sample, so there is no transient. Not thread-safe. Nothing is
+ * allocated after construction.
+ *
+ * <p>
+ * The output lags the input by the filter's group delay, for slow signals
+ * about {@code 2.6 / (2 * pi * cutoff)} at order 4; {@link #getDelayNanos()}
+ * tells how far, so that callers can stamp filtered samples with the time
+ * they describe.
+ */
+class LowPassFilter {
+    private static final double REDESIGN_TOLERANCE = 0.1;
+    private static final double MINIMUM_RATE_RATIO = 2.5;
+    private static final int GAP_PERIODS = 4;
+
+    private final int dimensions;
+    private final int sections;
+    private final double cutoff;
+    // Per section: b0, b1, b2, a1, a2 (normalized by a0).
+    private final double[] coefficients;
+    // Per section and dimension: the two state variables of the transposed
+    // direct form II.
+    private final double[] state;
+
+    private long previousNanos;
+    private long periodNanos;
+    private long designedPeriodNanos;
+    private long delayNanos;
+    private boolean primed;
+
+    /**
+     * @param cutoff cutoff frequency in Hz
+     * @param order filter order, even
+     */
+    LowPassFilter(int dimensions, double cutoff, int order) {
+        Preconditions.checkArgument(dimensions > 0 && cutoff > 0);
+        Preconditions.checkArgument(order > 0 && order % 2 == 0);
+        this.dimensions = dimensions;
+        this.sections = order / 2;
+        this.cutoff = cutoff;
+        coefficients = new double[5 * sections];
+        state = new double[2 * sections * dimensions];
+    }
+
+    /**
+     * Forgets the past samples, e.g. after the sensor was suspended.
+     */
+    void reset() {
+        previousNanos = 0;
+        periodNanos = 0;
+        designedPeriodNanos = 0;
+        primed = false;
+    }
+
+    /**
+     * Filters one sample.
+     *
+     * @param input {@link #dimensions} values
+     * @param output receives the filtered values; may be {@code input}
+     */
+    void filter(long timestampNanos, float[] input, float[] output) {
+        if (previousNanos != 0 && timestampNanos > previousNanos) {
+            long interval = timestampNanos - previousNanos;
+            if (periodNanos > 0 && interval > GAP_PERIODS * periodNanos) {
+                primed = false;
+            } else {
+                periodNanos = periodNanos == 0 ? interval : periodNanos + ((interval - periodNanos) >> 3);
+            }
+        }
+        previousNanos = timestampNanos;
+        if (periodNanos == 0 || cutoff * MINIMUM_RATE_RATIO * periodNanos > 1e9) {
+            System.arraycopy(input, 0, output, 0, dimensions);
+            primed = false;
+            return;
+        }
+        if (Math.abs(periodNanos - designedPeriodNanos) > REDESIGN_TOLERANCE * designedPeriodNanos) {
+            design(1e9 / periodNanos);
+        }
+        if (!primed) {
+            prime(input);
+        }
+        for (int d = 0; d < dimensions; d++) {
+            double x = input[d];
+            for (int s = 0; s < sections; s++) {
+                int c = 5 * s;
+                int i = 2 * (s * dimensions + d);
+                double y = coefficients[c] * x + state[i];
+                state[i] = coefficients[c + 1] * x - coefficients[c + 3] * y + state[i + 1];
+                state[i + 1] = coefficients[c + 2] * x - coefficients[c + 4] * y;
+                x = y;
+            }
+            output[d] = (float) x;
+        }
+    }
+
+    /**
+     * Returns the group delay at DC of the current design, or 0 while samples
+     * pass unchanged.
+     */
+    long getDelayNanos() {
+        return primed ? delayNanos : 0;
+    }
+
+    /**
+     * Computes the coefficients of a Butterworth filter of order
+     * {@code 2 * sections}: second order low-pass sections with the quality
+     * factors of the Butterworth poles.
+     */
+    private void design(double rate) {
+        double w0 = 2 * Math.PI * cutoff / rate;
+        double cos = Math.cos(w0);
+        double sin = Math.sin(w0);
+        double delaySamples = 0;
+        for (int s = 0; s < sections; s++) {
+            double q = 1 / (2 * Math.cos((2 * s + 1) * Math.PI / (4 * sections)));
+            double alpha = sin / (2 * q);
+            double a0 = 1 + alpha;
+            int c = 5 * s;
+            coefficients[c] = (1 - cos) / 2 / a0;
+            coefficients[c + 1] = (1 - cos) / a0;
+            coefficients[c + 2] = (1 - cos) / 2 / a0;
+            coefficients[c + 3] = -2 * cos / a0;
+            coefficients[c + 4] = (1 - alpha) / a0;
+            delaySamples += groupDelay(c);
+        }
+        designedPeriodNanos = periodNanos;
+        delayNanos = Math.round(delaySamples * periodNanos);
+    }
+
+    /**
+     * Returns the group delay at DC, in samples, of the section whose
+     * coefficients start at {@code c}: that of the numerator minus that of
+     * the denominator, each {@code sum(k * c_k) / sum(c_k)}.
+     */
+    private double groupDelay(int c) {
+        double b0 = coefficients[c];
+        double b1 = coefficients[c + 1];
+        double b2 = coefficients[c + 2];
+        double a1 = coefficients[c + 3];
+        double a2 = coefficients[c + 4];
+        return (b1 + 2 * b2) / (b0 + b1 + b2) - (a1 + 2 * a2) / (1 + a1 + a2);
+    }
+
+    /**
+     * Sets the state as if {@code input} had been applied forever. Every
+     * section has unit gain at DC, so each one outputs the same value.
+     */
+    private void prime(float[] input) {
+        for (int s = 0; s < sections; s++) {
+            int c = 5 * s;
+            double b1 = coefficients[c + 1];
+            double b2 = coefficients[c + 2];
+            double a1 = coefficients[c + 3];
+            double a2 = coefficients[c + 4];
+            for (int d = 0; d < dimensions; d++) {
+                int i = 2 * (s * dimensions + d);
+                state[i] = (b1 - a1 + b2 - a2) * input[d];
+                state[i + 1] = (b2 - a2) * input[d];
+            }
+        }
+        primed = true;
+    }
+}
@@ -32,6 +32,7 @@ import androidx.core.app.ActivityCompat;
 import org.ros.address.InetAddressFactory;
 import org.ros.android.Config;
 import org.ros.android.RosActivity;
+import org.ros.android.SensorHub;
 import org.ros.android.view.camera.RosCameraPreviewView;
 import org.ros.node.NodeConfiguration;
 import org.ros.node.NodeMainExecutor;
@@ -52,6 +53,8 @@ public class MainActivity extends RosActivity {
     private NodeMainExecutor nodeMainExecutor;
     private LocationManager mLocationManager;
     private SensorManager mSensorManager;
+    // One sensor thread shared by the IMU and GPS publishers.
+    private SensorHub sensorHub;
 
     public MainActivity() {
         super("ROS", "Camera & Imu");
@@ -67,6 +70,13 @@ public class MainActivity extends RosActivity {
         rosCameraPreviewView = findViewById(R.id.ros_camera_preview_view);
         mLocationManager = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
         mSensorManager = (SensorManager) this.getSystemService(SENSOR_SERVICE);
+        sensorHub = new SensorHub(mSensorManager);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        sensorHub.shutdown();
     }
 
     @Override
@@ -110,7 +120,7 @@ public class MainActivity extends RosActivity {
             NodeConfiguration nodeConfiguration1 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
             nodeConfiguration1.setMasterUri(getMasterUri());
             nodeConfiguration1.setNodeName("android_sensors_driver_nav_sat_fix");
-            this.fix_pub = new NavSatFixPublisher(mLocationManager);
+            this.fix_pub = new NavSatFixPublisher(mLocationManager, sensorHub);
             nodeMainExecutor.execute(this.fix_pub, nodeConfiguration1);
 
             rosCameraPreviewView.setCamera(getCamera());
@@ -123,15 +133,20 @@ public class MainActivity extends RosActivity {
         NodeConfiguration nodeConfiguration3 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
         nodeConfiguration3.setMasterUri(getMasterUri());
         nodeConfiguration3.setNodeName("android_sensors_driver_imu");
-        this.imu_pub = new ImuPublisher(mSensorManager);
+        this.imu_pub = new ImuPublisher(sensorHub);
         nodeMainExecutor.execute(this.imu_pub, nodeConfiguration3);
+
+        NodeConfiguration nodeConfiguration4 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
+        nodeConfiguration4.setMasterUri(getMasterUri());
+        nodeConfiguration4.setNodeName("android_sensors_driver_auxiliary");
+        nodeMainExecutor.execute(new AuxiliarySensorPublisher(sensorHub), nodeConfiguration4);
     }
 
     private void executeGPS() {
         NodeConfiguration nodeConfiguration1 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
         nodeConfiguration1.setMasterUri(getMasterUri());
         nodeConfiguration1.setNodeName("android_sensors_driver_nav_sat_fix");
-        this.fix_pub = new NavSatFixPublisher(mLocationManager);
+        this.fix_pub = new NavSatFixPublisher(mLocationManager, sensorHub);
         nodeMainExecutor.execute(this.fix_pub, nodeConfiguration1);
     }
 
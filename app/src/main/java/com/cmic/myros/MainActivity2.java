@@ -19,7 +19,6 @@ import android.Manifest;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.SensorManager;
@@ -27,20 +26,16 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraDevice;
 import android.location.LocationManager;
 import android.media.Image;
-import android.media.ImageReader;
 import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
 import android.widget.ImageView;
 
 import androidx.core.app.ActivityCompat;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Mat;
 import org.ros.address.InetAddressFactory;
 import org.ros.android.Config;
 import org.ros.android.RosActivity;
-import org.ros.android.view.camera.ImageUtils;
+import org.ros.android.SensorHub;
 import org.ros.android.view.camera.JavaCamera;
 import org.ros.android.view.camera.RosCameraPreviewView;
 import org.ros.node.NodeConfiguration;
@@ -59,57 +54,43 @@ public class MainActivity2 extends RosActivity {
     private static String TAG = "MainActivity";
     private int cameraId = 0;
     ImuPublisher imu_pub;
-    private ImageReader imageReader;
     private JavaCamera javaCamera;
     private NodeMainExecutor nodeMainExecutor;
     private SensorManager mSensorManager;
+    private SensorHub sensorHub;
     private final int imageWidth = 640;
     private final int imageHeight = 480;
+    private PreviewRenderer previewRenderer;
 
     public MainActivity2() {
         super("ROS", "Camera & Imu");
     }
-    private final ImageReader.OnImageAvailableListener onImageAvailableListener = new ImageReader.OnImageAvailableListener() {
-        /*
-         *  The following method will be called every time an image is ready
-         *  be sure to use method acquireNextImage() and then close(), otherwise, the display may STOP
-         */
-        @Override
-        public void onImageAvailable(ImageReader reader) {
-            // get the newest frame
-            Image image = reader.acquireNextImage();
-
-            if (image == null) {
-                return;
-            }
-            Log.i(TAG,"get new image, height: " + image.getHeight() + " width: " + image.getWidth());
-            Mat originMat = ImageUtils.getMatFromImage(image);
-            final Bitmap originBitmap = Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.RGB_565);
-            Utils.matToBitmap(originMat, originBitmap);
-            JavaCamera.onNewImage(originBitmap);
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    ((ImageView) findViewById(R.id.java_camera_view)).setImageBitmap(originBitmap);
-                }
-            });
-            image.close();
-        }
-    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main2);
-        // to set the format of captured images and the maximum number of images that can be accessed in mImageReader
-        imageReader = ImageReader.newInstance(imageWidth, imageHeight, ImageFormat.YUV_420_888, 1);
-
-        imageReader.setOnImageAvailableListener(onImageAvailableListener, null);
-
+        previewRenderer = new PreviewRenderer(this, (ImageView) findViewById(R.id.java_camera_view),
+                PreviewRenderer.DEFAULT_FRAME_RATE);
         javaCamera = new JavaCamera();
-        javaCamera.addImageReader(imageReader);
+        javaCamera.setImageReaderConfiguration(imageWidth, imageHeight, ImageFormat.YUV_420_888,
+                JavaCamera.DEFAULT_IMAGE_READER_DEPTH);
+        // JavaCamera publishes each frame first; the preview only converts
+        // frames at its own rate.
+        javaCamera.setImageListener(new JavaCamera.ImageListener() {
+            @Override
+            public void onImage(String cameraId, Image image) {
+                previewRenderer.onImage(image);
+            }
+        });
         mSensorManager = (SensorManager) this.getSystemService(SENSOR_SERVICE);
+        sensorHub = new SensorHub(mSensorManager);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        sensorHub.shutdown();
     }
 
 
@@ -125,8 +106,13 @@ public class MainActivity2 extends RosActivity {
         NodeConfiguration nodeConfiguration3 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
         nodeConfiguration3.setMasterUri(getMasterUri());
         nodeConfiguration3.setNodeName("android_sensors_driver_imu");
-        this.imu_pub = new ImuPublisher(mSensorManager);
+        this.imu_pub = new ImuPublisher(sensorHub);
         nodeMainExecutor.execute(this.imu_pub, nodeConfiguration3);
+
+        NodeConfiguration nodeConfiguration4 = NodeConfiguration.newPublic(InetAddressFactory.newNonLoopback().getHostAddress());
+        nodeConfiguration4.setMasterUri(getMasterUri());
+        nodeConfiguration4.setNodeName("android_sensors_driver_auxiliary");
+        nodeMainExecutor.execute(new AuxiliarySensorPublisher(sensorHub), nodeConfiguration4);
     }
 
 
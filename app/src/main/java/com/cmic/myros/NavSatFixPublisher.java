@@ -38,6 +38,7 @@ import android.os.Bundle;
 import android.os.Looper;
 import android.util.Log;
 
+import org.ros.android.SensorHub;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
@@ -53,37 +54,11 @@ import sensor_msgs.NavSatStatus;
  */
 public class NavSatFixPublisher implements NodeMain {
 
-    private NavSatThread navSatThread;
     private LocationManager locationManager;
     private NavSatListener navSatFixListener;
     private Publisher<NavSatFix> publisher;
     private ConnectedNode connectedNode;
-
-    private class NavSatThread extends Thread {
-        LocationManager locationManager;
-        NavSatListener navSatListener;
-        private Looper threadLooper;
-
-        private NavSatThread(LocationManager locationManager, NavSatListener navSatListener) {
-            this.locationManager = locationManager;
-            this.navSatListener = navSatListener;
-        }
-
-        @SuppressLint("MissingPermission")
-        public void run() {
-            Looper.prepare();
-            threadLooper = Looper.myLooper();
-            this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this.navSatListener);
-            Looper.loop();
-        }
-
-        public void shutdown() {
-            this.locationManager.removeUpdates(this.navSatListener);
-            if (threadLooper != null) {
-                threadLooper.quit();
-            }
-        }
-    }
+    private SensorHub sensorHub;
 
     private class NavSatListener implements LocationListener {
 
@@ -141,18 +116,36 @@ public class NavSatFixPublisher implements NodeMain {
         }
     }
 
+    /**
+     * Creates a publisher receiving location updates on the main thread.
+     */
     public NavSatFixPublisher(LocationManager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * Creates a publisher receiving location updates on the thread of a
+     * shared {@link SensorHub} instead of a thread of its own.
+     */
+    public NavSatFixPublisher(LocationManager manager, SensorHub sensorHub) {
         this.locationManager = manager;
+        this.sensorHub = sensorHub;
     }
 
     //@Override
+    @SuppressLint("MissingPermission")
     public void onStart(ConnectedNode node) {
         try {
             this.connectedNode = node;
             this.publisher = node.newPublisher("android/fix", "sensor_msgs/NavSatFix");
             this.navSatFixListener = new NavSatListener(publisher);
-            this.navSatThread = new NavSatThread(this.locationManager, this.navSatFixListener);
-            this.navSatThread.start();
+            if (this.sensorHub != null) {
+                this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this.navSatFixListener,
+                        this.sensorHub.getLooper());
+            } else {
+                this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this.navSatFixListener,
+                        Looper.getMainLooper());
+            }
         } catch (Exception e) {
             if (node != null) {
                 Log.e("error",e.toString());
@@ -165,11 +158,8 @@ public class NavSatFixPublisher implements NodeMain {
 
     //@Override
     public void onShutdown(Node arg0) {
-        this.navSatThread.shutdown();
-        try {
-            this.navSatThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (this.navSatFixListener != null) {
+            this.locationManager.removeUpdates(this.navSatFixListener);
         }
     }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.cmic.myros;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+import org.ros.android.view.camera.ImageUtils;
+
+import java.util.ArrayDeque;
+
+/**
+ * Shows camera frames in an {@link ImageView} at a limited rate without
+ * allocating per frame.
+ *
+ * <p>
+ * Frames are converted on the ImageReader thread into one reused {@link Mat}
+ * and one of {@link #BITMAP_COUNT} pooled Bitmaps: one on screen, one waiting
+ * for the UI thread and one being filled. A Bitmap goes back to the pool once
+ * the view shows a newer one. Frames arriving faster than the preview rate, or
+ * while the UI thread is behind, are simply not shown; publishing is not
+ * affected.
+ */
+class PreviewRenderer {
+    static final double DEFAULT_FRAME_RATE = 15;
+    private static final int BITMAP_COUNT = 3;
+
+    private final Activity activity;
+    private final ImageView imageView;
+    private final long framePeriodNanos;
+    private final Mat mat;
+    private final ArrayDeque<Bitmap> freeBitmaps;
+    private final Runnable showPending;
+
+    private long lastFrameNanos;
+    private int allocatedBitmaps;
+    // Guarded by freeBitmaps.
+    private Bitmap pendingBitmap;
+    // Only touched on the UI thread.
+    private Bitmap shownBitmap;
+
+    PreviewRenderer(Activity activity, ImageView imageView, double frameRate) {
+        this.activity = activity;
+        this.imageView = imageView;
+        framePeriodNanos = (long) (1e9 / frameRate);
+        mat = new Mat();
+        freeBitmaps = new ArrayDeque<>(BITMAP_COUNT);
+        showPending = new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap;
+                synchronized (freeBitmaps) {
+                    bitmap = pendingBitmap;
+                    pendingBitmap = null;
+                }
+                if (bitmap == null) {
+                    return;
+                }
+                PreviewRenderer.this.imageView.setImageBitmap(bitmap);
+                if (shownBitmap != null) {
+                    release(shownBitmap);
+                }
+                shownBitmap = bitmap;
+            }
+        };
+    }
+
+    /**
+     * Called on the ImageReader thread for every frame, before the image is
+     * closed.
+     */
+    void onImage(Image image) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (now - lastFrameNanos < framePeriodNanos) {
+            return;
+        }
+        Bitmap bitmap = acquire(image.getWidth(), image.getHeight());
+        if (bitmap == null) {
+            return;
+        }
+        lastFrameNanos = now;
+        ImageUtils.getMatFromImage(image, mat);
+        Utils.matToBitmap(mat, bitmap);
+
+        Bitmap superseded;
+        boolean post;
+        synchronized (freeBitmaps) {
+            superseded = pendingBitmap;
+            pendingBitmap = bitmap;
+            // A runnable is already queued if a frame was pending.
+            post = superseded == null;
+        }
+        if (superseded != null) {
+            release(superseded);
+        }
+        if (post) {
+            activity.runOnUiThread(showPending);
+        }
+    }
+
+    private Bitmap acquire(int width, int height) {
+        synchronized (freeBitmaps) {
+            Bitmap bitmap = freeBitmaps.pollFirst();
+            while (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+                // The image size changed, replace Bitmaps of the old size.
+                allocatedBitmaps--;
+                bitmap = freeBitmaps.pollFirst();
+            }
+            if (bitmap == null && allocatedBitmaps < BITMAP_COUNT) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+                allocatedBitmaps++;
+            }
+            return bitmap;
+        }
+    }
+
+    private void release(Bitmap bitmap) {
+        synchronized (freeBitmaps) {
+            freeBitmaps.addLast(bitmap);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.cmic.myros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImuFusionTest {
+    private static final long MILLIS = 1000000L;
+
+    private static final class Output implements ImuFusion.Sink {
+        private final List<Long> times = new ArrayList<>();
+        private final List<float[]> accelerations = new ArrayList<>();
+        private final List<float[]> angularVelocities = new ArrayList<>();
+        private final List<float[]> orientations = new ArrayList<>();
+
+        @Override
+        public void onSample(long timestampNanos, float[] acceleration, float[] angularVelocity, float[] orientation) {
+            times.add(timestampNanos);
+            accelerations.add(acceleration.clone());
+            angularVelocities.add(angularVelocity.clone());
+            orientations.add(orientation.clone());
+        }
+    }
+
+    private static float[] vector(float x) {
+        return new float[]{x, 2 * x, -x};
+    }
+
+    @Test
+    public void interpolatesOntoAlignedInstants() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, true, true, false, output);
+        // Accelerometer at 0, 7, 14, ... ms with a ramp of 1 per ms, gyroscope
+        // at 3, 8, 13, ... ms with a ramp of 10 per ms.
+        for (long t = 0; t <= 70; t += 7) {
+            fusion.addAcceleration((1000 + t) * MILLIS, vector(t));
+        }
+        for (long t = 3; t <= 70; t += 5) {
+            fusion.addAngularVelocity((1000 + t) * MILLIS, vector(10 * t));
+        }
+        int emitted = fusion.drain(Integer.MAX_VALUE);
+        // The first aligned instant both rings cover is 1010 ms, and 1070 ms
+        // waits for a gyroscope sample after 1068 ms.
+        assertEquals(6, emitted);
+        for (int i = 0; i < emitted; i++) {
+            long t = 10 + 10 * i;
+            assertEquals((1000 + t) * MILLIS, (long) output.times.get(i));
+            assertArrayEquals(vector(t), output.accelerations.get(i), 1e-3f);
+            assertArrayEquals(vector(10 * t), output.angularVelocities.get(i), 1e-2f);
+        }
+        assertEquals(0, fusion.getInstantsSkipped());
+    }
+
+    @Test
+    public void waitsForEverySensor() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, true, true, false, output);
+        for (long t = 0; t <= 50; t += 5) {
+            fusion.addAcceleration(t * MILLIS, vector(t));
+        }
+        assertEquals(0, fusion.drain(Integer.MAX_VALUE));
+        fusion.addAngularVelocity(0, vector(0));
+        fusion.addAngularVelocity(25 * MILLIS, vector(25));
+        // Instants 0, 10 and 20 ms; 30 ms waits for the gyroscope.
+        assertEquals(3, fusion.drain(Integer.MAX_VALUE));
+        fusion.addAngularVelocity(40 * MILLIS, vector(40));
+        assertEquals(2, fusion.drain(Integer.MAX_VALUE));
+        assertEquals(40 * MILLIS, (long) output.times.get(4));
+    }
+
+    @Test
+    public void drainEmitsAtMostTheRequestedNumber() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, true, false, false, output);
+        for (long t = 0; t <= 100; t += 5) {
+            fusion.addAcceleration(t * MILLIS, vector(t));
+        }
+        assertEquals(4, fusion.drain(4));
+        assertEquals(7, fusion.drain(Integer.MAX_VALUE));
+        assertEquals(100 * MILLIS, (long) output.times.get(10));
+    }
+
+    @Test
+    public void skipsInstantsAcrossAStall() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, true, false, false, output);
+        for (long t = 0; t <= 20; t += 5) {
+            fusion.addAcceleration(t * MILLIS, vector(t));
+        }
+        // Nothing from 20 to 220 ms.
+        for (long t = 220; t <= 240; t += 5) {
+            fusion.addAcceleration(t * MILLIS, vector(t));
+        }
+        assertEquals(6, fusion.drain(Integer.MAX_VALUE));
+        assertEquals(20 * MILLIS, (long) output.times.get(2));
+        // The stall is skipped rather than bridged.
+        assertEquals(220 * MILLIS, (long) output.times.get(3));
+        assertEquals(19, fusion.getInstantsSkipped());
+    }
+
+    @Test
+    public void interpolatesSensorsSlowerThanTheOutput() {
+        Output output = new Output();
+        // 200 Hz output, accelerometer at 200 Hz, rotation vector at 40 Hz.
+        ImuFusion fusion = new ImuFusion(200, ImuFusion.DEFAULT_CAPACITY, true, false, true, output);
+        for (long t = 0; t <= 200; t += 5) {
+            fusion.addAcceleration(t * MILLIS, vector(t));
+        }
+        for (long t = 0; t <= 200; t += 25) {
+            fusion.addOrientation(t * MILLIS, new float[]{1, 0, 0, 0});
+        }
+        assertEquals(41, fusion.drain(Integer.MAX_VALUE));
+        assertEquals(0, fusion.getInstantsSkipped());
+    }
+
+    @Test
+    public void interpolatesQuaternionsAlongTheShorterArc() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, false, false, true, output);
+        float half = (float) Math.sqrt(0.5);
+        fusion.addOrientation(0, new float[]{1, 0, 0, 0});
+        // The same rotation as (half, 0, 0, half), with the opposite sign.
+        fusion.addOrientation(20 * MILLIS, new float[]{-half, 0, 0, -half});
+        assertEquals(3, fusion.drain(Integer.MAX_VALUE));
+        float[] middle = output.orientations.get(1);
+        float norm = 0;
+        for (float value : middle) {
+            norm += value * value;
+        }
+        assertEquals(1, norm, 1e-5f);
+        // Halfway to a 90 degree turn about z: a 45 degree turn.
+        assertEquals(Math.cos(Math.PI / 8), middle[0], 1e-2f);
+        assertEquals(Math.sin(Math.PI / 8), middle[3], 1e-2f);
+    }
+
+    @Test
+    public void resetForgetsSamples() {
+        Output output = new Output();
+        ImuFusion fusion = new ImuFusion(100, ImuFusion.DEFAULT_CAPACITY, true, false, false, output);
+        fusion.addAcceleration(0, vector(0));
+        fusion.addAcceleration(30 * MILLIS, vector(30));
+        fusion.reset();
+        assertEquals(0, fusion.drain(Integer.MAX_VALUE));
+        fusion.addAcceleration(5 * MILLIS, vector(5));
+        fusion.addAcceleration(15 * MILLIS, vector(15));
+        assertEquals(1, fusion.drain(Integer.MAX_VALUE));
+        assertEquals(10 * MILLIS, (long) output.times.get(0));
+    }
+}
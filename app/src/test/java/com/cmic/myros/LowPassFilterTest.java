@@ -0,0 +1,78 @@
+package com.cmic.myros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LowPassFilterTest {
+    private static final long PERIOD = 5000000L;
+
+    @Test
+    public void passesConstantsWithoutTransient() {
+        LowPassFilter filter = new LowPassFilter(3, 20, 4);
+        float[] input = {3, -1, 9.81f};
+        float[] output = new float[3];
+        for (int i = 1; i <= 100; i++) {
+            filter.filter(i * PERIOD, input, output);
+            assertArrayEquals(input, output, 1e-4f);
+        }
+    }
+
+    @Test
+    public void attenuatesAboveTheCutoff() {
+        LowPassFilter filter = new LowPassFilter(1, 20, 4);
+        float[] value = new float[1];
+        float peak = 0;
+        for (int i = 1; i <= 400; i++) {
+            // 80 Hz at 200 Hz sampling.
+            value[0] = (float) Math.sin(2 * Math.PI * 80 * i * PERIOD / 1e9);
+            filter.filter(i * PERIOD, value, value);
+            if (i > 200) {
+                peak = Math.max(peak, Math.abs(value[0]));
+            }
+        }
+        assertTrue("peak " + peak, peak < 0.05f);
+    }
+
+    @Test
+    public void passesSamplesUnchangedWhenTooSlow() {
+        LowPassFilter filter = new LowPassFilter(1, 20, 4);
+        float[] value = new float[1];
+        for (int i = 1; i <= 20; i++) {
+            // 10 Hz is below 2.5 times the cutoff.
+            float input = i % 2 == 0 ? 1 : -1;
+            value[0] = input;
+            filter.filter(i * 100000000L, value, value);
+            assertEquals(input, value[0], 0);
+        }
+        assertEquals(0, filter.getDelayNanos());
+    }
+
+    @Test
+    public void rampLagsByTheDelay() {
+        LowPassFilter filter = new LowPassFilter(1, 20, 4);
+        assertEquals(0, filter.getDelayNanos());
+        float[] value = new float[1];
+        for (int i = 1; i <= 400; i++) {
+            // One unit per millisecond.
+            value[0] = i * PERIOD / 1e6f;
+            filter.filter(i * PERIOD, value, value);
+        }
+        long delay = filter.getDelayNanos();
+        // About 2.6 / (2 pi 20 Hz) for a fourth order Butterworth filter.
+        assertEquals(21e6, delay, 2e6);
+        assertEquals(400 * PERIOD / 1e6 - delay / 1e6, value[0], 0.05);
+    }
+
+    @Test
+    public void resetForgetsTheDesign() {
+        LowPassFilter filter = new LowPassFilter(1, 20, 4);
+        float[] value = {1};
+        for (int i = 1; i <= 10; i++) {
+            filter.filter(i * PERIOD, value, value);
+        }
+        assertTrue(filter.getDelayNanos() > 0);
+        filter.reset();
+        assertEquals(0, filter.getDelayNanos());
+    }
+}